@@ -1,91 +1,170 @@
 import java.util.*;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 
 import config.Const;
+import index.AddressIterator;
 import index.BPTree;
+import index.ConcurrentBPTree;
+import index.HashIndex;
+import index.SecondaryIndex;
+import query.Accumulator;
+import query.Aggregate;
+import query.Batch;
+import query.Filter;
+import query.GroupTable;
+import query.IndexScan;
+import query.Limit;
+import query.Operator;
+import query.Plan;
+import query.Planner;
+import query.Project;
+import query.TableScan;
+import stats.TableStatistics;
 import storage.Address;
 import storage.Block;
+import storage.Column;
+import storage.DataFileLoader;
 import storage.Disk;
 import storage.Record;
+import storage.WriteAheadLog;
 
 public class Main {
+    // Columns with a secondary index, next to the B+ tree on FG_PCT_home
+    private static final Column[] SECONDARY_INDEX_COLUMNS = { Column.PTS_home, Column.TEAM_ID_home,
+            Column.AST_home, Column.REB_home, Column.GAME_DATE_EST };
+
     private Disk disk;
     private BPTree index;
+    private EnumMap<Column, SecondaryIndex> secondaryIndexes;
+    private TableStatistics statistics;
+    private SecondaryIndex teamDateIndex; // Composite index on (TEAM_ID_home, GAME_DATE_EST)
+    private SecondaryIndex coveringIndex; // Index on FG_PCT_home including FG3_PCT_home, for experiments 3 and 4
+    private HashIndex hashIndex; // Extendible hash index on FG_PCT_home, for queries on a single value
+    private WriteAheadLog log;
 
-    // Date parser to return a date with fixed format DDMMYYYY
-    public static String parseDate(String date) {
-        String[] dateParts = date.split("/");
-
-        int day = Integer.parseInt(dateParts[0]);
-        int month = Integer.parseInt(dateParts[1]);
-        int year = Integer.parseInt(dateParts[2]);
+    public void init() throws Exception {
+        System.out.println();
+        System.out.println("Initializing the database...");
 
-        String formattedDay = String.format("%02d", day);
-        String formattedMonth = String.format("%02d", month);
-        String formattedYear = String.format("%04d", year);
+        File databaseFile = new File(Const.DATABASE_FILE_PATH);
+        File indexFile = new File(Const.INDEX_FILE_PATH);
+        if (databaseFile.exists() && indexFile.exists()) {
+            // Reopen the saved database and index instead of reloading the data file
+            long startTime = System.nanoTime();
+            disk = Disk.open(Const.DATABASE_FILE_PATH);
+            index = BPTree.load(Const.INDEX_FILE_PATH, Const.BLOCK_SIZE);
+            log = WriteAheadLog.open(Const.LOG_FILE_PATH, Const.LOG_SYNC_BATCH, Const.LOG_SYNC_INTERVAL_MS);
+
+            // Redo every change logged after the checkpoint the index was saved at
+            int replayed = log.replay(index.getCheckpointLSN(), entry -> {
+                disk.redo(entry);
+                index.redo(entry);
+            });
+            if (replayed > 0) {
+                save();
+            }
+            attachLog();
+            createSecondaryIndexes();
+            createStatistics();
+            long runtime = System.nanoTime() - startTime;
+
+            System.out.println("Opened " + Const.DATABASE_FILE_PATH + " and " + Const.INDEX_FILE_PATH + " in "
+                    + runtime / 1000000 + " ms.");
+            if (replayed > 0) {
+                System.out.println("Recovered " + replayed + " log records from " + Const.LOG_FILE_PATH + ".");
+            }
+            System.out.println();
+            return;
+        }
 
-        String result = formattedDay + formattedMonth + formattedYear;
-        return result;
-    }
+        // Initialization
+        // Discard a database file left without its index, it cannot be trusted
+        databaseFile.delete();
+        disk = Disk.open(Const.DATABASE_FILE_PATH);
 
-    public static List<Record> readDataFile(String directory) throws Exception {
-        File dataFile = new File(directory);
-        System.out.println("Reading records from " + directory + "...");
+        // Insertion
+        // The data file is parsed in parallel chunks, which are inserted in file order
+        // The index entries are collected and the B+ tree is bulk loaded from them at the end
+        System.out.println("Reading records from " + Const.DATA_FILE_PATH + "...");
+        float[][] keys = { new float[1024] };
+        long[][] addresses = { new long[1024] };
+        int[] entryCount = { 0 };
+        DataFileLoader loader = new DataFileLoader(Const.DATA_FILE_PATH, Const.LOADER_THREADS, Const.LOADER_CHUNK_SIZE);
+        loader.load((rows, count) -> {
+            if (entryCount[0] + count > keys[0].length) {
+                int capacity = Math.max(keys[0].length * 2, entryCount[0] + count);
+                keys[0] = Arrays.copyOf(keys[0], capacity);
+                addresses[0] = Arrays.copyOf(addresses[0], capacity);
+            }
+            for (int i = 0; i < count; i++) {
+                int position = i * Record.size;
+                Address address = disk.insertRow(rows, position);
+                addresses[0][entryCount[0]] = Address.pack(address.blockID, address.offset);
+                keys[0][entryCount[0]] = rows.getFloat(position + Column.FG_PCT_home.offset);
+                entryCount[0]++;
+            }
+        });
+        System.out.println("Read records from " + Const.DATA_FILE_PATH + " successfully.");
+        index = BPTree.bulkLoad(Const.BLOCK_SIZE, keys[0], addresses[0], entryCount[0], Const.INDEX_FILL_FACTOR);
+        // The initial load is not logged, the database only counts as created once this checkpoint is saved
+        log = WriteAheadLog.open(Const.LOG_FILE_PATH, Const.LOG_SYNC_BATCH, Const.LOG_SYNC_INTERVAL_MS);
+        save();
+        attachLog();
+        createSecondaryIndexes();
+        createStatistics();
 
-        String line;
-        String[] fields = null;
-        List<Record> records = new ArrayList<>();
+        System.out.println("Database and B+ tree index created successfully.");
+        System.out.println();
+    }
 
-        BufferedReader reader = new BufferedReader(new FileReader(dataFile));
+    public void save() throws Exception {
+        // Checkpoint: persist the data blocks and the index, then drop the log records they cover
+        log.sync();
+        disk.flush();
+        long checkpointLSN = log.getEndLSN();
+        index.save(Const.INDEX_FILE_PATH, checkpointLSN);
+        log.truncate(checkpointLSN);
+    }
 
-        reader.readLine();
-        while ((line = reader.readLine()) != null) {
-            fields = line.split("\\t");
+    public void close() throws Exception {
+        save();
+        disk.close();
+        log.close();
+    }
 
-            // Ignore row if some fields are empty
-            if (fields[2].isEmpty()) {
-                continue;
-            }
+    private void attachLog() {
+        disk.setLog(log);
+        index.setLog(log);
+    }
 
-            String GAME_DATE_EST = parseDate(fields[0]);
-            int TEAM_ID_home = Integer.parseInt(fields[1]);
-            int PTS_home = Integer.parseInt(fields[2]);
-            float FG_PCT_home = Float.parseFloat(fields[3]);
-            float FT_PCT_home = Float.parseFloat(fields[4]);
-            float FG3_PCT_home = Float.parseFloat(fields[5]);
-            int AST_home = Integer.parseInt(fields[6]);
-            int REB_home = Integer.parseInt(fields[7]);
-            boolean HOME_TEAM_WINS = fields[8] != "0";
-
-            Record record = new Record(GAME_DATE_EST, TEAM_ID_home, PTS_home, FG_PCT_home, FT_PCT_home, FG3_PCT_home,
-                    AST_home, REB_home, HOME_TEAM_WINS);
-            records.add(record);
+    private void createSecondaryIndexes() throws Exception {
+        // Built from the blocks, then the disk keeps them up to date on every insertion and deletion
+        long startTime = System.nanoTime();
+        secondaryIndexes = new EnumMap<>(Column.class);
+        for (Column column : SECONDARY_INDEX_COLUMNS) {
+            SecondaryIndex secondaryIndex = new SecondaryIndex(column, Const.BLOCK_SIZE);
+            disk.addRecordListener(secondaryIndex);
+            secondaryIndexes.put(column, secondaryIndex);
         }
-        reader.close();
+        teamDateIndex = new SecondaryIndex(Column.TEAM_ID_home, Column.GAME_DATE_EST, Const.BLOCK_SIZE);
+        disk.addRecordListener(teamDateIndex);
+        coveringIndex = new SecondaryIndex(Column.FG_PCT_home, null, Const.BLOCK_SIZE, Column.FG3_PCT_home);
+        disk.addRecordListener(coveringIndex);
+        hashIndex = new HashIndex(Column.FG_PCT_home, Const.BLOCK_SIZE);
+        disk.addRecordListener(hashIndex);
+        long runtime = System.nanoTime() - startTime;
 
-        System.out.println("Read records from " + directory + " successfully.");
-        return records;
+        System.out.println("Built " + (secondaryIndexes.size() + 2) + " secondary indexes and a hash index in "
+                + runtime / 1000000 + " ms.");
     }
 
-    public void init() throws Exception {
-        System.out.println();
-        System.out.println("Initializing the database...");
-
-        // Initialization
-        disk = new Disk();
-        index = new BPTree(Const.BLOCK_SIZE);
-
-        // Insertion
-        List<Record> rows = readDataFile(Const.DATA_FILE_PATH);
-        for (Record row : rows) {
-            Address address = disk.insertRecord(row);
-            index.insertKey(row.FG_PCT_home, address);
-        }
+    private void createStatistics() throws Exception {
+        // Built from the blocks like the secondary indexes, then updated on every insertion and deletion
+        long startTime = System.nanoTime();
+        statistics = TableStatistics.build(disk);
+        long runtime = System.nanoTime() - startTime;
 
-        System.out.println("Database and B+ tree index created successfully.");
-        System.out.println();
+        System.out.println("Built column statistics in " + runtime / 1000000 + " ms.");
     }
 
     public void start() throws Exception {
@@ -101,7 +180,10 @@ public class Main {
             System.out.println("(4): Experiment 4");
             System.out.println("(5): Experiment 5");
             System.out.println("(6): Print B+ Tree");
-            System.out.println("(7): Exit");
+            System.out.println("(7): Concurrent B+ Tree Stress Test");
+            System.out.println("(8): Secondary Indexes");
+            System.out.println("(9): Aggregates");
+            System.out.println("(10): Exit");
             System.out.println("=================================================================================");
             System.out.print("Your option (Type the number of the option): ");
 
@@ -131,10 +213,22 @@ public class Main {
                     printBPTree();
                     pressEnterToContinue();
                     break;
+                case "7":
+                    concurrentIndexStressTest();
+                    pressEnterToContinue();
+                    break;
+                case "8":
+                    secondaryIndexQueries();
+                    pressEnterToContinue();
+                    break;
+                case "9":
+                    aggregateQueries();
+                    pressEnterToContinue();
+                    break;
                 default:
                     break;
             }
-        } while (!input.equals("7"));
+        } while (!input.equals("10"));
 
         sc.close();
     }
@@ -144,6 +238,7 @@ public class Main {
         System.out.println("The size of a record: " + Record.size);
         System.out.println("The number of records stored in a block: " + Block.maxRecordCount);
         System.out.println("The number of blocks for storing the data: " + disk.getBlockCount());
+        statistics.printInfo();
     }
 
     public void experiment2() {
@@ -151,49 +246,48 @@ public class Main {
     }
 
     public void experiment3() throws Exception {
-        // Normal Query
-        long startTime = System.nanoTime();
-        ArrayList<Address> dataAddress = index.retrieveRecordsWithKey(0.5f);
-        ArrayList<Record> records = disk.getRecords(dataAddress);
-        long runtime = System.nanoTime() - startTime;
+        // Normal Query, only the cheapest of the B+ tree, the hash index and a linear scan is run
+        plannedQuery("Exp 3", 0.5f, 0.5f);
 
-        System.out.println("The average of \"FG3_PCT_home\" for Exp 3: " + calcFG3Avg(records));
-        System.out.println("The running time of the retrieval process: " + runtime / 1000000 + " ms");
-
-        // Brute Force Linear Scan
-        startTime = System.nanoTime();
-        records = disk.linearScan(0.5f);
-        runtime = System.nanoTime() - startTime;
+        // Covering index query
+        coveringIndexQuery("Exp 3", SecondaryIndex.floatKey(0.5f), SecondaryIndex.floatKey(0.5f));
 
-        System.out.println("The running time of the retrieval process: " + runtime / 1000000 + " ms");
+        // A rare value, all its entries are in a single page of the hash index
+        plannedQuery("FG_PCT_home = 0.65", 0.65f, 0.65f);
     }
 
     public void experiment4() throws Exception {
-        // Normal query
-        long startingTime = System.nanoTime();
-        ArrayList<Address> addressList = index.retrieveRecordsWithKey(0.6f, 1.0f);
-        ArrayList<Record> records = disk.getRecords(addressList);
-        long totalRuntime = System.nanoTime() - startingTime;
+        // Normal query, only the cheaper of the B+ tree and a linear scan is run
+        plannedQuery("Exp 4", 0.6f, 1.0f);
 
-        System.out.println("The average of \"FG3_PCT_home\" for Exp 4: " + calcFG3Avg(records));
-        System.out.println("The running time of the retrieval process: " + totalRuntime / 1000000 + " ms");
+        // Covering index query
+        coveringIndexQuery("Exp 4", SecondaryIndex.floatKey(0.6f), SecondaryIndex.floatKey(1.0f));
 
-        // Brute Force Linear Scan
-        startingTime = System.nanoTime();
-        records = disk.linearScan(0.6f, 1.0f);
-        totalRuntime = System.nanoTime() - startingTime;
+        // A wide range matches records in most blocks, so the linear scan is chosen
+        plannedQuery("FG_PCT_home from 0.45 to 0.55", 0.45f, 0.55f);
+    }
 
-        System.out.println("The running time of the retrieval process: " + totalRuntime / 1000000 + " ms");
+    private void plannedQuery(String description, float lowerBound, float upperBound) throws Exception {
+        // Average FG3_PCT_home of the records with FG_PCT_home in [lowerBound, upperBound]
+        resetBufferPoolStatistics();
+        long startTime = System.nanoTime();
+        Plan plan = new Planner(disk, index, statistics, hashIndex).plan(lowerBound, upperBound, Column.FG3_PCT_home);
+        float average = (float) new Aggregate(plan.getOperator(), Aggregate.Function.AVG, Column.FG3_PCT_home)
+                .execute();
+        long runtime = System.nanoTime() - startTime;
+
+        plan.printInfo();
+
+        System.out.println("The average of \"FG3_PCT_home\" for " + description + ": " + average);
+        System.out.println("The running time of the retrieval process: " + runtime / 1000000 + " ms");
+        printBufferPoolInfo();
     }
 
     public void experiment5() throws Exception {
         // Create a deep copy of disk to perform linear scan for comparison
         System.out.println("Creating a deep copy of disk for comparison...");
-        Disk tempDisk = new Disk();
-        List<Record> rows = readDataFile(Const.DATA_FILE_PATH);
-        for (Record row : rows) {
-            tempDisk.insertRecord(row);
-        }
+        Disk tempDisk = disk.copy();
+        Disk parallelTempDisk = disk.copy();
         System.out.println();
 
         // Normal deletion
@@ -210,19 +304,325 @@ public class Main {
         runtime = System.nanoTime() - startTime;
 
         System.out.println("The running time of the deletion process is: " + runtime / 1000000 + " ms");
+
+        // Parallel brute force deletion
+        startTime = System.nanoTime();
+        parallelTempDisk.parallelLinearScanDeletion(0.35f);
+        runtime = System.nanoTime() - startTime;
+
+        System.out.println("The running time of the deletion process is: " + runtime / 1000000 + " ms");
+
+        System.out.println();
+        disk.getFreeSpaceMap().printInfo();
+
+        // Compaction, moves records out of the blocks emptied by the deletion and updates their index entries
+        System.out.println();
+        System.out.println("Compacting the disk...");
+        startTime = System.nanoTime();
+        int moved = disk.compact((block, offset, from, to) ->
+                index.updateAddress(block.getFloat(offset, Column.FG_PCT_home), from, to));
+        runtime = System.nanoTime() - startTime;
+
+        System.out.println("The number of records moved: " + moved);
+        System.out.println("The running time of the compaction process is: " + runtime / 1000000 + " ms");
+        disk.getFreeSpaceMap().printInfo();
+    }
+
+    public boolean concurrentIndexStressTest() throws Exception {
+        // Copy the index into a ConcurrentBPTree and run a mixed workload on it with more and more threads:
+        // 80% range reads, 10% insertions of new keys and 10% removals, half of them of entries inserted earlier
+        // by the same thread and half of the loaded entries, each thread owning every threadCount-th of them
+        // so the tree shrinks and its nodes get merged
+        // The number of entries, the sum of their addresses and the key order are checked after every run,
+        // returns true if every check passed
+        // At least 4 threads are run even on fewer cores, which still exercises the latching
+        final int operationsPerThread = 200000;
+        final float rangeWidth = 0.01f;
+
+        float[] keys = new float[disk.getRecordCount()];
+        long[] addresses = new long[disk.getRecordCount()];
+        int keyCount = 0;
+        AddressIterator cursor = index.addressIterator(Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+        while (cursor.hasNext()) {
+            long address = cursor.next();
+            if (keyCount == keys.length) {
+                keys = Arrays.copyOf(keys, keyCount * 2);
+                addresses = Arrays.copyOf(addresses, keyCount * 2);
+            }
+            keys[keyCount] = cursor.getKey();
+            addresses[keyCount++] = address;
+        }
+        final float[] loadedKeys = Arrays.copyOf(keys, keyCount);
+        final long[] loadedAddresses = Arrays.copyOf(addresses, keyCount);
+        long loadedSum = 0;
+        for (long address : loadedAddresses) {
+            loadedSum += address;
+        }
+        boolean passed = true;
+
+        System.out.println("Entries: " + loadedKeys.length + ", operations per thread: " + operationsPerThread);
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int threadCount = 1; threadCount <= maxThreads; threadCount *= 2) {
+            ConcurrentBPTree tree = new ConcurrentBPTree(Const.BLOCK_SIZE);
+            for (int i = 0; i < loadedKeys.length; i++) {
+                tree.insertKey(loadedKeys[i], loadedAddresses[i]);
+            }
+
+            final int stride = threadCount;
+            Thread[] threads = new Thread[threadCount];
+            int[] netInsertions = new int[threadCount];
+            long[] netSums = new long[threadCount];
+            Throwable[] failures = new Throwable[threadCount];
+            for (int t = 0; t < threadCount; t++) {
+                final int threadID = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        // Inserted addresses use block IDs no real record has, one per thread
+                        Random random = new Random(threadID);
+                        int blockID = Integer.MAX_VALUE - threadID;
+                        float[] insertedKeys = new float[operationsPerThread];
+                        int inserted = 0;
+                        int live = 0;
+                        int nextLoaded = threadID; // Next loaded entry owned by this thread
+                        int net = 0;
+                        long netSum = 0;
+                        for (int i = 0; i < operationsPerThread; i++) {
+                            float key = loadedKeys[random.nextInt(loadedKeys.length)];
+                            int operation = random.nextInt(10);
+                            if (operation == 0) {
+                                key = random.nextFloat();
+                                long address = Address.pack(blockID, inserted);
+                                tree.insertKey(key, address);
+                                insertedKeys[inserted++] = key;
+                                live++;
+                                net++;
+                                netSum += address;
+                            } else if (operation == 1 && live > 0
+                                    && (random.nextBoolean() || nextLoaded >= loadedKeys.length)) {
+                                int offset = inserted - live;
+                                long address = Address.pack(blockID, offset);
+                                if (!tree.removeAddress(insertedKeys[offset], address)) {
+                                    throw new IllegalStateException("Inserted address not found");
+                                }
+                                live--;
+                                net--;
+                                netSum -= address;
+                            } else if (operation == 1 && nextLoaded < loadedKeys.length) {
+                                if (!tree.removeAddress(loadedKeys[nextLoaded], loadedAddresses[nextLoaded])) {
+                                    throw new IllegalStateException("Loaded address not found");
+                                }
+                                net--;
+                                netSum -= loadedAddresses[nextLoaded];
+                                nextLoaded += stride;
+                            } else {
+                                tree.countAddresses(key, key + rangeWidth);
+                            }
+                        }
+                        netInsertions[threadID] = net;
+                        netSums[threadID] = netSum;
+                    } catch (Throwable e) {
+                        failures[threadID] = e;
+                    }
+                });
+            }
+
+            long startTime = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long runtime = System.nanoTime() - startTime;
+
+            // Check the final state, every entry is found once and in key order
+            int expected = loadedKeys.length;
+            long expectedSum = loadedSum;
+            for (int t = 0; t < threadCount; t++) {
+                if (failures[t] != null) {
+                    throw new Exception("Stress test thread failed", failures[t]);
+                }
+                expected += netInsertions[t];
+                expectedSum += netSums[t];
+            }
+            float[] previousKey = { Float.NEGATIVE_INFINITY };
+            boolean[] ordered = { true };
+            long[] sum = { 0 };
+            int found = tree.forEachAddress(Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, (key, address) -> {
+                ordered[0] &= key >= previousKey[0];
+                previousKey[0] = key;
+                sum[0] += address;
+            });
+            boolean ok = found == expected && sum[0] == expectedSum && ordered[0];
+            passed &= ok;
+
+            System.out.printf("Threads: %d, Throughput: %.0f operations/s, Levels: %d, Splits: %d, Merges: %d, "
+                    + "Pessimistic operations: %d, Check: %s\n", threadCount,
+                    threadCount * (double) operationsPerThread * 1e9 / runtime, tree.getLevelCount(),
+                    tree.getSplitCount(), tree.getMergeCount(), tree.getPessimisticCount(),
+                    ok ? "OK" : "FAILED (" + found + " of " + expected + " entries)");
+        }
+        return passed;
+    }
+
+    public void secondaryIndexQueries() throws Exception {
+        for (SecondaryIndex secondaryIndex : secondaryIndexes.values()) {
+            secondaryIndex.printInfo();
+        }
+        teamDateIndex.printInfo();
+        coveringIndex.printInfo();
+        hashIndex.printInfo();
+
+        secondaryIndexQuery("PTS_home >= 130", Column.PTS_home,
+                SecondaryIndex.intKey(130), SecondaryIndex.intKey(Integer.MAX_VALUE));
+        secondaryIndexQuery("TEAM_ID_home = 1610612744", Column.TEAM_ID_home,
+                SecondaryIndex.intKey(1610612744), SecondaryIndex.intKey(1610612744));
+        secondaryIndexQuery("AST_home between 30 and 35", Column.AST_home,
+                SecondaryIndex.intKey(30), SecondaryIndex.intKey(35));
+        secondaryIndexQuery("REB_home >= 60", Column.REB_home,
+                SecondaryIndex.intKey(60), SecondaryIndex.intKey(Integer.MAX_VALUE));
+        secondaryIndexQuery("GAME_DATE_EST in 2022", Column.GAME_DATE_EST,
+                SecondaryIndex.dateKey(2022, 1, 1), SecondaryIndex.dateKey(2022, 12, 31));
+
+        // Home games of one team between two dates, a single walk along the leaves of the composite index
+        long team = SecondaryIndex.intKey(1610612744);
+        runQuery("TEAM_ID_home = 1610612744 and GAME_DATE_EST from 2015-10-01 to 2019-06-30",
+                new IndexScan(disk, teamDateIndex,
+                        SecondaryIndex.compositeKey(team, SecondaryIndex.dateKey(2015, 10, 1)),
+                        SecondaryIndex.compositeKey(team, SecondaryIndex.dateKey(2019, 6, 30)), Column.FG3_PCT_home));
+
+        // The first query again without any index, through a scan of every block
+        TableScan tableScan = new TableScan(disk, Column.PTS_home, Column.FG3_PCT_home);
+        runQuery("PTS_home >= 130 (table scan)", new Filter(tableScan, Column.PTS_home, 130, Integer.MAX_VALUE));
+        System.out.println("The number of data blocks accessed: " + tableScan.getBlockAccessCount());
+
+        // A few rows of a query, the pipeline stops reading blocks once they are found
+        System.out.println();
+        System.out.println("Query: first 5 games with PTS_home >= 150 (table scan)");
+        System.out.println("------------------------------------------------------------------");
+        tableScan = new TableScan(disk, Column.GAME_DATE_EST, Column.TEAM_ID_home, Column.PTS_home);
+        Operator rows = new Limit(new Project(new Filter(tableScan, Column.PTS_home, 150, Integer.MAX_VALUE),
+                Column.GAME_DATE_EST, Column.PTS_home), 5);
+        rows.open();
+        try {
+            Batch batch;
+            while ((batch = rows.next()) != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    System.out.println("GAME_DATE_EST: " + batch.getInt(i, Column.GAME_DATE_EST) + ", PTS_home: "
+                            + batch.getInt(i, Column.PTS_home) + ", at " + batch.getRecordAddress(i).blockID);
+                }
+            }
+        } finally {
+            rows.close();
+        }
+        System.out.println("The number of data blocks accessed: " + tableScan.getBlockAccessCount());
+    }
+
+    public void aggregateQueries() throws Exception {
+        // Every aggregate is folded inside the loop of the scan below it, keeping one accumulator per group
+        long startTime = System.nanoTime();
+        TableScan scan = new TableScan(disk, Column.PTS_home, Column.HOME_TEAM_WINS);
+        GroupTable groups = new Aggregate(scan, Aggregate.Function.AVG, Column.PTS_home, Column.HOME_TEAM_WINS)
+                .executeGroups();
+        long runtime = System.nanoTime() - startTime;
+
+        System.out.println();
+        System.out.println("Query: AVG(PTS_home) GROUP BY HOME_TEAM_WINS (table scan)");
+        System.out.println("------------------------------------------------------------------");
+        for (int key : groups.getKeys()) {
+            Accumulator group = groups.get(key);
+            System.out.println("HOME_TEAM_WINS: " + key + ", records: " + group.getCount() + ", average PTS_home: "
+                    + (float) group.getAverage());
+        }
+        System.out.println("The running time of the retrieval process: " + runtime / 1000000 + " ms");
+
+        // Share of home wins of each team in the games it shot at least 40% from three
+        startTime = System.nanoTime();
+        scan = new TableScan(disk, Column.TEAM_ID_home, Column.FG3_PCT_home, Column.HOME_TEAM_WINS);
+        groups = new Aggregate(new Filter(scan, Column.FG3_PCT_home, 0.4f, 1.0f), Aggregate.Function.AVG,
+                Column.HOME_TEAM_WINS, Column.TEAM_ID_home).executeGroups();
+        runtime = System.nanoTime() - startTime;
+
+        System.out.println();
+        System.out.println("Query: AVG(HOME_TEAM_WINS) WHERE FG3_PCT_home >= 0.4 GROUP BY TEAM_ID_home (table scan)");
+        System.out.println("------------------------------------------------------------------");
+        for (int key : groups.getKeys()) {
+            Accumulator group = groups.get(key);
+            System.out.printf("TEAM_ID_home: %d, records: %d, home wins: %.1f%%%n", key, group.getCount(),
+                    100 * group.getAverage());
+        }
+        System.out.println("The running time of the retrieval process: " + runtime / 1000000 + " ms");
+
+        // Every aggregate of FG3_PCT_home for Exp 4 at once, folded during the walk along the covering index
+        startTime = System.nanoTime();
+        IndexScan indexScan = new IndexScan(disk, coveringIndex, SecondaryIndex.floatKey(0.6f),
+                SecondaryIndex.floatKey(1.0f), Column.FG3_PCT_home);
+        Accumulator total = new Aggregate(indexScan, Aggregate.Function.SUM, Column.FG3_PCT_home).executeGroups()
+                .get(0);
+        runtime = System.nanoTime() - startTime;
+
+        System.out.println();
+        System.out.println("Query: COUNT, SUM, AVG, MIN, MAX of FG3_PCT_home WHERE FG_PCT_home from 0.6 to 1.0 "
+                + "(covering index)");
+        System.out.println("------------------------------------------------------------------");
+        if (total != null) {
+            System.out.println("COUNT: " + total.getCount() + ", SUM: " + (float) total.getSum() + ", AVG: "
+                    + (float) total.getAverage() + ", MIN: " + (float) total.getMin() + ", MAX: "
+                    + (float) total.getMax());
+        }
+        System.out.println("The running time of the retrieval process: " + runtime / 1000000 + " ms");
+    }
+
+    private void secondaryIndexQuery(String description, Column column, long lowerKey, long upperKey)
+            throws Exception {
+        // Average FG3_PCT_home of the records with a key in [lowerKey, upperKey], found through the index on column
+        runQuery(description, new IndexScan(disk, secondaryIndexes.get(column), lowerKey, upperKey,
+                Column.FG3_PCT_home));
+    }
+
+    private static void runQuery(String description, Operator input) throws Exception {
+        // Count the rows of the pipeline and average their FG3_PCT_home in one pass
+        long startTime = System.nanoTime();
+        Aggregate aggregate = new Aggregate(input, Aggregate.Function.AVG, Column.FG3_PCT_home);
+        double average = aggregate.execute();
+        long runtime = System.nanoTime() - startTime;
+
+        System.out.println();
+        System.out.println("Query: " + description);
+        System.out.println("------------------------------------------------------------------");
+        System.out.println("The number of records: " + aggregate.getRowCount());
+        System.out.println("The average of \"FG3_PCT_home\": " + (float) average);
+        System.out.println("The running time of the retrieval process: " + runtime / 1000000 + " ms");
+    }
+
+    public void resetBufferPoolStatistics() {
+        if (disk.getBufferPool() != null) {
+            disk.getBufferPool().resetStatistics();
+        }
+    }
+
+    public void printBufferPoolInfo() {
+        if (disk.getBufferPool() != null) {
+            disk.getBufferPool().printInfo();
+        }
     }
 
     public void printBPTree() {
         index.printTree();
     }
 
-    public float calcFG3Avg(ArrayList<Record> records) {
-        float total_FG3 = 0;
-        for (Record record : records) {
-            total_FG3 += record.FG3_PCT_home;
-        }
+    private void coveringIndexQuery(String experiment, long lowerKey, long upperKey) throws Exception {
+        // FG3_PCT_home is read from the leaves of the covering index, no data block is accessed
+        long startTime = System.nanoTime();
+        IndexScan scan = new IndexScan(disk, coveringIndex, lowerKey, upperKey, Column.FG3_PCT_home);
+        float average = (float) new Aggregate(scan, Aggregate.Function.AVG, Column.FG3_PCT_home).execute();
+        long runtime = System.nanoTime() - startTime;
 
-        return total_FG3 / records.size();
+        System.out.println();
+        System.out.println("Covering index on " + coveringIndex.getName());
+        System.out.println("------------------------------------------------------------------");
+        System.out.println("The average of \"FG3_PCT_home\" for " + experiment + ": " + average);
+        System.out.println("The running time of the retrieval process: " + runtime / 1000000 + " ms");
     }
 
     public static void pressEnterToContinue() {
@@ -232,11 +632,26 @@ public class Main {
     }
 
     public static void main(String[] args) {
+        // With --stress, only run the concurrent B+ tree stress test and exit with status 1 if it fails
+        if (args.length > 0 && args[0].equals("--stress")) {
+            boolean passed = false;
+            try {
+                Main db = new Main();
+                db.init();
+                passed = db.concurrentIndexStressTest();
+                db.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            System.exit(passed ? 0 : 1);
+        }
+
         try {
             Main db = new Main();
             db.init();
             pressEnterToContinue();
             db.start();
+            db.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
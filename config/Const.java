@@ -2,6 +2,25 @@ package config;
 
 public interface Const {
     public static final String DATA_FILE_PATH = "games.txt"; // File name
+    public static final double INDEX_FILL_FACTOR = 0.9; // Fraction of each B+ tree node filled by a bulk load
+    public static final String DATABASE_FILE_PATH = "games.db"; // Memory-mapped data blocks
+    public static final String INDEX_FILE_PATH = "games.idx"; // Saved B+ tree index
+    public static final String LOG_FILE_PATH = "games.wal"; // Write-ahead log since the last checkpoint
+    public static final int LOG_SYNC_BATCH = 64; // Operations sharing one fsync of the log
+    public static final int LOG_SYNC_INTERVAL_MS = 10; // A commit this long after the last fsync forces the log
     public static final int DISK_CAPACITY = 100 * 1000 * 1000; // 100MB for disk
     public static final int BLOCK_SIZE = 400; // 400B for block size
-}
\ No newline at end of file
+    public static final int LOADER_THREADS = Runtime.getRuntime().availableProcessors(); // Threads parsing the data file
+    public static final int LOADER_CHUNK_SIZE = 4 * 1024 * 1024; // Bytes of the data file parsed per task
+    public static final boolean DIRECT_BLOCK_BUFFER = false; // Allocate blocks outside the Java heap
+    public static final boolean PAX_BLOCK_LAYOUT = false; // Store each block column by column instead of row by row
+    public static final int BUFFER_POOL_FRAMES = 1024; // Blocks cached in memory, 0 to memory-map the whole file
+    public static final int BUFFER_POOL_LRU_K = 0; // 0 for CLOCK eviction, K > 0 for LRU-K eviction
+    public static final int PREFETCH_BLOCKS = 32; // Blocks read ahead at a time by a batched record fetch
+    public static final int PARALLEL_SCAN_BLOCKS = 8192; // Blocks read in parallel before their records are handed on
+    public static final int QUERY_BATCH_SIZE = 1024; // Records per batch passed between query operators
+    public static final double INDEX_READ_COST = 2.0; // Cost of a data block read through an index, a scan read costs 1
+    public static final int STATISTICS_BUCKETS = 64; // Buckets of the histogram of each column
+    public static final int STATISTICS_EXACT_VALUES = 1 << 16; // Distinct values of a column counted one by one
+    public static final int STATISTICS_HLL_PRECISION = 12; // 2^12 registers per distinct count, about 1.6% error
+}
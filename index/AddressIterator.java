@@ -0,0 +1,130 @@
+package index;
+
+public class AddressIterator {
+    // Cursor over the packed addresses of every key in [lowerBound, upperBound], in key order, then address order
+    // The leaves are walked lazily, nothing is collected and no Address objects are created
+    // It stops after limit addresses or when closed, and resume() continues a stopped cursor later on
+    private final BPTree tree;
+    private final float lowerBound;
+    private final float upperBound;
+    private final int limit;
+    private LeafNode leafNode;
+    private int keyIndex;
+    private int position;
+    private boolean resuming; // Set until the addresses of lowerBound up to resumeAfter have been skipped
+    private final long resumeAfter;
+
+    private int returned;
+    private boolean exhausted;
+    private float lastKey;
+    private long lastAddress;
+
+    private int nodeAccess;
+
+    //Visibility: Package
+    AddressIterator(BPTree tree, float lowerBound, float upperBound, int limit) {
+        this(tree, lowerBound, upperBound, limit, false, 0);
+    }
+
+    private AddressIterator(BPTree tree, float lowerBound, float upperBound, int limit, boolean resuming,
+            long resumeAfter) {
+        int[] accessed = new int[1];
+        this.tree = tree;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.limit = limit;
+        this.leafNode = tree.findLeaf(lowerBound, false, accessed);
+        this.keyIndex = leafNode.lowerBound(lowerBound);
+        this.position = 0;
+        this.resuming = resuming;
+        this.resumeAfter = resumeAfter;
+        this.nodeAccess = accessed[0];
+    }
+
+    public boolean hasNext() {
+        // Move to the next address, skipping over exhausted keys and leaves
+        if (returned == limit) {
+            return false;
+        }
+        while (leafNode != null) {
+            if (keyIndex == leafNode.getKeyCount()) {
+                leafNode = leafNode.getNextNode();
+                if (leafNode != null) {
+                    nodeAccess++;
+                }
+                keyIndex = 0;
+                position = 0;
+                continue;
+            }
+            float key = leafNode.getKey(keyIndex);
+            if (key > upperBound) {
+                close();
+                return false;
+            }
+            if (resuming) {
+                // Only the first key can be the one the previous cursor stopped in, carry on with its addresses
+                // greater than the last one returned, whether or not that one is still there
+                if (key == lowerBound) {
+                    position = leafNode.positionAfter(keyIndex, resumeAfter);
+                }
+                resuming = false;
+            }
+            if (key >= lowerBound && position < leafNode.getAddressCount(keyIndex)) {
+                return true;
+            }
+            keyIndex++;
+            position = 0;
+        }
+        exhausted = true;
+        return false;
+    }
+
+    public long next() {
+        // Packed address of the next record, see Address.pack
+        if (!hasNext()) {
+            throw new IllegalStateException("No more addresses");
+        }
+        lastKey = leafNode.getKey(keyIndex);
+        long packed = leafNode.getPackedAddress(keyIndex, position++);
+        lastAddress = packed;
+        returned++;
+        return packed;
+    }
+
+    public float getKey() {
+        // Key of the address returned by the last call to next
+        return lastKey;
+    }
+
+    public void close() {
+        // Stop early, hasNext returns false from now on
+        leafNode = null;
+        exhausted = true;
+    }
+
+    public boolean isExhausted() {
+        // True once the whole range has been returned or the cursor was closed,
+        // false if it only stopped at its limit
+        return exhausted;
+    }
+
+    public AddressIterator resume(int limit) {
+        // Continue after the last address returned, with a new limit
+        // The new cursor searches again from the root and seeks past that address within its key, as the
+        // addresses of a key are sorted, so keys and addresses may be inserted, removed or moved in between
+        // Addresses of the key added below the last one returned, or moved there, are not returned
+        if (returned == 0) {
+            return new AddressIterator(tree, lowerBound, upperBound, limit, resuming, resumeAfter);
+        }
+        return new AddressIterator(tree, lastKey, upperBound, limit, true, lastAddress);
+    }
+
+    public int getReturnedCount() {
+        return returned;
+    }
+
+    public int getNodeAccessCount() {
+        // Index nodes read so far, from the root down to the first leaf and then along the leaves
+        return nodeAccess;
+    }
+}
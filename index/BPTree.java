@@ -1,30 +1,46 @@
 package index;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 
 import storage.Address;
+import storage.LogRecord;
+import storage.WriteAheadLog;
 
 public class BPTree {
     // Pointer = 8B, Key = 4B, Bool = 1B
     private static final int POINTER_SIZE = 8;
     private static final int KEY_SIZE = 4;
     private static final int BOOL_SIZE = 1;
+    // Header of a saved index file
+    private static final int FILE_MAGIC = 0x435A4958; // "CZIX"
+    private static final int FILE_VERSION = 2;
     Node root;
     int numLevels;
     int numNodes;
     int maxKeys;
     int minInternalKeys;
     int minLeafKeys;
+    long checkpointLSN; // End of the write-ahead log when this tree was saved
+    WriteAheadLog log;
 
     public BPTree(int blkSize) {
-        // InternalNode_ptr(8B) + isRoot(1B) + isLeaf(1B) + 4n + 8(n+1) <= blkSize
-        // Calculation for n, maximum number of keys in a node
-        maxKeys = (blkSize - 2 * POINTER_SIZE - 2 * BOOL_SIZE) / (POINTER_SIZE +
-                KEY_SIZE);
+        maxKeys = maxKeysFor(blkSize);
         minInternalKeys = (int) Math.floor(maxKeys / 2);
         minLeafKeys = (int) Math.floor((maxKeys + 1) / 2);
 
-        root = new LeafNode();
+        // Leaves have room for one key more than maxKeys, which splitLeafNode uses while splitting
+        root = new LeafNode(maxKeys + 1);
         numLevels = 1;
         numNodes = 1;
         root.setIsRoot(true);
@@ -32,47 +48,216 @@ public class BPTree {
         numNodes = 0;
     }
 
-    public void insertKey(float key, Address address) {
-        // Search the leafNode for a given key.
-        // Insert the key and address to the leafNode.
-        this.insertLeafNode(this.searchLeafNode(key), key, address);
+    //Visibility: Package
+    static int maxKeysFor(int blkSize) {
+        return maxKeysFor(blkSize, KEY_SIZE);
     }
 
-    public LeafNode searchLeafNode(float key) {
-        if (this.root.getIsLeaf())
-            // If this root is a leafNode implies this is a 1-level tree, the key should be
-            // inserted into this rootNode.
-            return (LeafNode) root;
+    //Visibility: Package
+    static int maxKeysFor(int blkSize, int keySize) {
+        // InternalNode_ptr(8B) + isRoot(1B) + isLeaf(1B) + keySize * n + 8(n+1) <= blkSize
+        // Calculation for n, maximum number of keys in a node
+        return (blkSize - 2 * POINTER_SIZE - 2 * BOOL_SIZE) / (POINTER_SIZE + keySize);
+    }
 
-        // Search for the leafNode.
-        InternalNode internalNode = (InternalNode) root;
-        while (true) {
-            ArrayList<Float> keys = internalNode.getKeys();
+    public static BPTree bulkLoad(int blkSize, float[] keys, long[] addresses, int count, double fillFactor) {
+        // Build a tree bottom-up from unsorted (key, address) pairs instead of inserting them one by one
+        // The addresses are packed with Address.pack
+        // The pairs are sorted, packed into leaves left to right and the internal levels are built on top
+        // Nodes are filled to fillFactor of their capacity but never below the minimum occupancy
+        BPTree tree = new BPTree(blkSize);
+        if (count == 0) {
+            return tree;
+        }
 
-            int i;
+        // Sort on the key bits with the original position as tie-breaker, so duplicates keep their input order
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) sortableBits(keys[i]) << 32) | i;
+        }
+        java.util.Arrays.parallelSort(order);
 
-            for (i = 0; i < keys.size(); i++) {
-                if (key < keys.get(i)) {
-                    // Get appropraite child node to travel by checking if keys.get(i)>key
-                    break;
+        // Count the distinct keys, which is the number of leaf entries
+        int distinctKeys = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || (order[i] >>> 32) != (order[i - 1] >>> 32)) {
+                distinctKeys++;
+            }
+        }
+
+        // Leaf level
+        int leafTarget = Math.max(tree.minLeafKeys, Math.min(tree.maxKeys, (int) Math.ceil(tree.maxKeys * fillFactor)));
+        int leafCount = nodeCount(distinctKeys, leafTarget, tree.minLeafKeys);
+        Node[] level = new Node[leafCount];
+        float[] smallestKeys = new float[leafCount];
+
+        int pair = 0;
+        LeafNode previousLeaf = null;
+        for (int j = 0; j < leafCount; j++) {
+            LeafNode leafNode = new LeafNode(tree.maxKeys + 1);
+            int entries = distinctKeys / leafCount + (j < distinctKeys % leafCount ? 1 : 0);
+            for (int e = 0; e < entries; e++) {
+                float key = keys[(int) order[pair]];
+                do {
+                    leafNode.addPackedAddress(key, addresses[(int) order[pair]]);
+                    pair++;
+                } while (pair < count && (order[pair] >>> 32) == (order[pair - 1] >>> 32));
+            }
+
+            if (previousLeaf != null) {
+                previousLeaf.setNextNode(leafNode);
+            }
+            previousLeaf = leafNode;
+            level[j] = leafNode;
+            smallestKeys[j] = leafNode.getKey(0);
+        }
+        tree.numNodes = leafCount;
+        tree.numLevels = 1;
+
+        // Internal levels, until a single node is left as the root
+        int childTarget = Math.max(tree.minInternalKeys + 1,
+                Math.min(tree.maxKeys + 1, (int) Math.ceil((tree.maxKeys + 1) * fillFactor)));
+        while (level.length > 1) {
+            int parentCount = nodeCount(level.length, childTarget, tree.minInternalKeys + 1);
+            Node[] parents = new Node[parentCount];
+            float[] parentSmallestKeys = new float[parentCount];
+
+            int child = 0;
+            for (int j = 0; j < parentCount; j++) {
+                InternalNode internalNode = new InternalNode(tree.maxKeys);
+                int children = level.length / parentCount + (j < level.length % parentCount ? 1 : 0);
+                parentSmallestKeys[j] = smallestKeys[child];
+                for (int c = 0; c < children; c++, child++) {
+                    if (c > 0) {
+                        internalNode.setKey(smallestKeys[child]);
+                    }
+                    internalNode.appendChild(level[child]);
                 }
+                parents[j] = internalNode;
             }
 
-            Node child = internalNode.getChildNode(i);
+            level = parents;
+            smallestKeys = parentSmallestKeys;
+            tree.numNodes += parentCount;
+            tree.numLevels++;
+        }
 
-            if (child.getIsLeaf()) {
-                // leafNode where key should be inserted is found.
-                return (LeafNode) child;
-            } else {
-                // leafNode is not found, hence continue to traverse downwards.
-                internalNode = (InternalNode) child;
+        tree.root = level[0];
+        tree.root.setIsRoot(true);
+        return tree;
+    }
+
+    private static int nodeCount(int entries, int target, int minimum) {
+        // Number of nodes holding entries at about target per node, without any node dropping below minimum
+        int count = (entries + target - 1) / target;
+        return Math.max(1, Math.min(count, entries / minimum));
+    }
+
+    //Visibility: Package
+    static int sortableBits(float key) {
+        // Flip the magnitude bits of negative floats, then the bits compare as signed ints in the same order
+        // as the floats (-0.0 sorts right before 0.0)
+        int bits = Float.floatToIntBits(key);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    //Visibility: Package
+    static float fromSortableBits(int bits) {
+        // Flipping the same bits again gives the float back
+        return Float.intBitsToFloat(bits ^ ((bits >> 31) & 0x7fffffff));
+    }
+
+    public void setLog(WriteAheadLog log) {
+        // Log every insertion and removal from now on
+        this.log = log;
+    }
+
+    public long getCheckpointLSN() {
+        return this.checkpointLSN;
+    }
+
+    public void redo(LogRecord entry) {
+        // Reapply a logged insertion or removal to a tree loaded from the preceding checkpoint
+        if (entry.type == LogRecord.INDEX_INSERT) {
+            this.insertLeafNode(this.searchLeafNode(entry.key), entry.key, new Address(entry.blockID, entry.offset));
+        } else if (entry.type == LogRecord.INDEX_REMOVE) {
+            this.removeKeyRange(entry.lowerBound, entry.upperBound);
+        } else if (entry.type == LogRecord.INDEX_UPDATE) {
+            this.replaceAddress(entry.key, new Address(entry.blockID, entry.offset),
+                    new Address(entry.newBlockID, entry.newOffset));
+        }
+    }
+
+    public void insertKey(float key, Address address) throws IOException {
+        // Search the leafNode for a given key.
+        // Insert the key and address to the leafNode.
+        if (log != null) {
+            log.logIndexInsert(key, address);
+        }
+        this.insertLeafNode(this.searchLeafNode(key), key, address);
+        if (log != null) {
+            log.commit();
+        }
+    }
+
+    public boolean updateAddress(float key, Address from, Address to) throws IOException {
+        // Point the entry of a record that has been moved, e.g. by Disk.compact, to its new address
+        if (log != null) {
+            log.logIndexUpdate(key, from, to);
+        }
+        boolean updated = this.replaceAddress(key, from, to);
+        if (log != null) {
+            log.commit();
+        }
+        return updated;
+    }
+
+    private boolean replaceAddress(float key, Address from, Address to) {
+        // Replacing an address that is no longer there has no effect, so a redo can be applied twice
+        for (LeafNode curr = findLeaf(key, false, null); curr != null; curr = curr.getNextNode()) {
+            for (int i = 0; i < curr.getKeyCount(); i++) {
+                if (curr.getKey(i) > key) {
+                    return false;
+                }
+                if (Float.compare(curr.getKey(i), key) != 0) {
+                    continue;
+                }
+                if (curr.replacePackedAddress(i, Address.pack(from.blockID, from.offset),
+                        Address.pack(to.blockID, to.offset))) {
+                    return true;
+                }
             }
         }
+        return false;
+    }
+
+    public LeafNode searchLeafNode(float key) {
+        // Leaf where the key is inserted, to the right of every separator equal to it
+        return findLeaf(key, true, null);
+    }
+
+    //Visibility: Package
+    LeafNode findLeaf(float key, boolean upper, int[] nodeAccess) {
+        // Shared descent of every search, insertion and removal path, binary searching each internal node
+        // Follows the child left of the first separator >= key, or > key if upper is set
+        // nodeAccess[0], if given, is set to the number of nodes visited including the leaf
+        Node currNode = root;
+        int accessed = 1;
+        while (!currNode.getIsLeaf()) {
+            InternalNode internalNode = (InternalNode) currNode;
+            int i = upper ? internalNode.upperBound(key) : internalNode.lowerBound(key);
+            currNode = internalNode.getChildNode(i);
+            accessed++;
+        }
+        if (nodeAccess != null) {
+            nodeAccess[0] = accessed;
+        }
+        return (LeafNode) currNode;
     }
 
     public void insertLeafNode(LeafNode leafNode, float key, Address address) {
         // Check if the key exist.
-        if (leafNode.getKeys().contains(key) == false && leafNode.getKeys().size() >= maxKeys) {
+        if (leafNode.containsKey(key) == false && leafNode.getKeyCount() >= maxKeys) {
             // If does not exist and need to split.
             splitLeafNode(leafNode, key, address);
         } else {
@@ -83,71 +268,12 @@ public class BPTree {
 
     public void splitLeafNode(LeafNode prevLeaf, float key, Address address) {
         // Only called when need splitting due to the key and address
-        // Generate a local ArrayList of ArrayLists to store addresses and keys, with
-        // the intention of preserving the original keys and accommodating new ones for
-        // insertion.
-        ArrayList<ArrayList<Address>> addresses = new ArrayList<ArrayList<Address>>();
-        float keys[] = new float[maxKeys + 1];
-        LeafNode newLeaf = new LeafNode();
-
-        // Makes a copy of the keys and addresses
-        int i;
-        for (i = 0; i < maxKeys; i++) {
-            keys[i] = prevLeaf.getKey(i);
-            addresses.add(prevLeaf.getAddress(i));
-        }
-
-        // A flag to check if the key is inserted
-        boolean inserted = false;
-
-        // Some temporary and dummy linked list for data manupulation
-        ArrayList<Address> addressLL = new ArrayList<Address>();
-        ArrayList<Address> dummyLL = new ArrayList<Address>();
-        addresses.add(dummyLL);
-        addressLL.add(address);
-
-        // Comparing the new key intended for insertion with the keys present in the old
-        // leaf, starting from the end of the keys array
-        for (i = maxKeys - 1; i >= 0; i--) {
-            if (Float.compare(keys[i], key) <= 0) {
-                // If the new key surpasses the existing key in value, it's placed on the
-                // right side.
-                inserted = true;
-                i++;
-                keys[i] = key;
-                addresses.set(i, addressLL);
-                break;
-            }
-            // If the new key is smaller than the existing key, all keys larger than the new
-            // key are shifted to the right to create room for the new key, which is then
-            // inserted into its appropraite position.
-            keys[i + 1] = keys[i];
-            addresses.set(i + 1, addresses.get(i));
-        }
-        // Check if the new key should be inserted at the leftmost position.
-        if (inserted == false) {
-            keys[0] = key;
-            addresses.set(0, addressLL);
-        }
-
-        // Erase all keys and restore all addresses to their original state in the old
-        // leaf.
-        prevLeaf.doSeparation();
-
-        // Reinsert the most recent keys and addresses from the local array into the two
-        // leaf nodes. When the old leaf node becomes full, proceed with the insertion
-        // into the new leaf node.
-        for (i = 0; i < minLeafKeys; i++) {
-            ArrayList<Address> tempLL = addresses.get(i);
-            for (int j = 0; j < tempLL.size(); j++) {
-                prevLeaf.setAddress(keys[i], tempLL.get(j));
-            }
-        }
-        for (i = minLeafKeys; i < maxKeys + 1; i++) {
-            ArrayList<Address> tempLL = addresses.get(i);
-            for (int j = 0; j < tempLL.size(); j++) {
-                newLeaf.setAddress(keys[i], tempLL.get(j));
-            }
+        // The new key is inserted into the old leaf first, which has room for maxKeys + 1 keys, then
+        // the keys from minLeafKeys on are moved with their addresses into the new leaf
+        LeafNode newLeaf = new LeafNode(maxKeys + 1);
+        prevLeaf.setAddress(key, address);
+        while (prevLeaf.getKeyCount() > minLeafKeys) {
+            newLeaf.addEntry(prevLeaf, minLeafKeys);
         }
 
         // After distributing the keys and addresses between the old and new leaf nodes,
@@ -161,14 +287,14 @@ public class BPTree {
             // A new internal node is created because every pair of nodes requires a parent
             // node.The old root node is transformed into a regular node, with the newly
             // created internal node as its parent, now acting as the new root node.
-            InternalNode newRoot = new InternalNode();
+            InternalNode newRoot = new InternalNode(maxKeys);
             prevLeaf.setIsRoot(false);
             newRoot.setIsRoot(true);
             newRoot.insertChild(prevLeaf);
             newRoot.insertChild(newLeaf);
             root = newRoot;
             numLevels++;
-        } else if (prevLeaf.getInternalNode().getKeys().size() < maxKeys) {
+        } else if (prevLeaf.getInternalNode().getKeyCount() < maxKeys) {
             // If the old leaf node was not the root node and has enough space for the new
             // leaf node, the new leaf node is added to the parent node of the old leaf
             // node.
@@ -193,7 +319,7 @@ public class BPTree {
         Node childNodes[] = new Node[maxKeys + 2];
         float keys[] = new float[maxKeys + 2];
         float key = childNode.retrieveSmallestKey();
-        InternalNode parentNode2 = new InternalNode();
+        InternalNode parentNode2 = new InternalNode(maxKeys);
         parentNode2.setIsRoot(false);
 
         // Makes a copy of the current children and smallest keys.
@@ -232,14 +358,14 @@ public class BPTree {
             // If parentNode is a root.
             // A new root is created to serve as the root of B+Tree with children parentNode
             // and parentNode2.
-            InternalNode newRoot = new InternalNode();
+            InternalNode newRoot = new InternalNode(maxKeys);
             parentNode.setIsRoot(false);
             newRoot.setIsRoot(true);
             newRoot.insertChild(parentNode);
             newRoot.insertChild(parentNode2);
             root = newRoot;
             numLevels++;
-        } else if (parentNode.getInternalNode().getKeys().size() < maxKeys) {
+        } else if (parentNode.getInternalNode().getKeyCount() < maxKeys) {
             // If parentNode is not the root and there is still available space for key
             // insertion.
             // Add parentNode2 as its child
@@ -254,289 +380,233 @@ public class BPTree {
         numNodes++;
     }
 
-    public ArrayList<Address> removeKey(float lowerBound, float upperBound) {
-        // Create temporary memory for data manipulation
+    public ArrayList<Address> removeKey(float lowerBound, float upperBound) throws IOException {
+        if (log != null) {
+            log.logIndexRemove(lowerBound, upperBound);
+        }
+        ArrayList<Address> addressOfRecordsToDelete = removeKeyRange(lowerBound, upperBound);
+        if (log != null) {
+            log.commit();
+        }
+        return addressOfRecordsToDelete;
+    }
+
+    private ArrayList<Address> removeKeyRange(float lowerBound, float upperBound) {
+        // Walk the leaf chain once from the first leaf that can hold lowerBound, removing the run of
+        // matching keys from each leaf in one go, then rebalance the tree once for the whole range
         ArrayList<Address> addressOfRecordsToDelete = new ArrayList<>();
-        ArrayList<Float> keys;
-        LeafNode leafNode;
-
-        // Get keys of records to be deleted
-        ArrayList<Float> keyOfRecordsToDelete = retrieveRangeOfKeys(lowerBound, upperBound);
-
-        int length = keyOfRecordsToDelete.size();
-        for (int j = 0; j < length; j++) {
-            // Get one of the keys from keyOfRecordsToDelete
-            float key = keyOfRecordsToDelete.get(j);
-            // Obtain the leafNode where this key is located
-            leafNode = searchLeafNode(key);
-            // Retrieve the all the keys of this leafNode
-            keys = leafNode.getKeys();
-
-            // Find and delete the key along with the addresses in this leafNode
-            for (int i = 0; i < keys.size(); i++) {
-                if (Float.compare(keys.get(i), key) == 0) {
+        ArrayList<Node> touchedLeaves = new ArrayList<>();
+
+        LeafNode leafNode = findLeaf(lowerBound, false, null);
+        while (leafNode != null) {
+            int from = leafNode.lowerBound(lowerBound);
+            int to = leafNode.upperBound(upperBound);
+            if (from < to) {
+                for (int i = from; i < to; i++) {
                     addressOfRecordsToDelete.addAll(leafNode.getAddress(i));
-                    leafNode.deleteAddress(i);
-                    if (!leafNode.getIsRoot()) {
-                        // If this is not a root.
-                        // Call cleanLeafNode to check if cleaning is needed
-                        cleanLeafNode(leafNode);
-                    }
-                    break;
                 }
+                leafNode.deleteEntries(from, to);
+                touchedLeaves.add(leafNode);
             }
+            if (to < leafNode.getKeyCount()) {
+                // A key above the range, nothing further along the chain can match
+                break;
+            }
+            leafNode = leafNode.getNextNode();
         }
 
+        if (!touchedLeaves.isEmpty()) {
+            rebalance(touchedLeaves);
+        }
         return addressOfRecordsToDelete;
     }
 
-    public void cleanLeafNode(LeafNode leafNode) {
-        // Clean the leaf node if key deficiency happens
-
-        // Case 1: If enough keys, do nothing
-        if (leafNode.getKeys().size() >= minLeafKeys) {
-            cleanParentNode(leafNode.getInternalNode());
-            return;
-        }
-
-        int required = minLeafKeys - leafNode.getKeys().size();
-        int leftExcess = 0;
-        int rightExcess = 0;
-
-        LeafNode left = (LeafNode) leafNode.getInternalNode().getLeftSiblingNode(leafNode);
-        LeafNode right = (LeafNode) leafNode.getInternalNode().getRightSiblingNode(leafNode);
-        InternalNode duplicate;
-
-        if (left != null) {
-            leftExcess += left.getKeys().size() - minLeafKeys;
-        }
-
-        if (right != null) {
-            rightExcess += right.getKeys().size() - minLeafKeys;
-        }
-
-        // Case 2: Borrow key from siblings if possible, check the left sibling first
-        if (leftExcess + rightExcess >= required) {
-            if (left != null && leftExcess > 0) {
-                for (int i = 0; i < left.getAddress(left.getKeys().size() - 1).size(); i++) {
-                    leafNode.setAddress(left.getKey(left.getKeys().size() - 1),
-                            left.getAddress(left.getKeys().size() - 1).get(i));
+    private void rebalance(ArrayList<Node> nodes) {
+        // Fix the nodes left with too few keys one level at a time, from the leaves up to the root
+        // A node is fixed by borrowing from a sibling with keys to spare or by merging with a sibling
+        // Separators are only changed where keys moved between siblings, the others remain valid bounds
+        // A node that is the only child of its parent is retried once the level above has been fixed
+        ArrayList<Node> deferred = new ArrayList<>();
+        while (!nodes.isEmpty()) {
+            LinkedHashSet<Node> parents = new LinkedHashSet<>();
+            for (Node node : nodes) {
+                if (isRemoved(node) || node.getIsRoot()) {
+                    continue;
                 }
-                left.deleteAddress(left.getKeys().size() - 1);
-            } else {
-                for (int i = 0; i < right.getAddress(0).size(); i++) {
-                    leafNode.setAddress(right.getKey(0), right.getAddress(0).get(i));
+                InternalNode parent = node.getInternalNode();
+                if (node.getIsLeaf()) {
+                    fixLeafNode((LeafNode) node);
+                } else {
+                    fixInternalNode((InternalNode) node);
+                }
+                if (!isRemoved(node) && isUnderfull(node)) {
+                    deferred.add(node);
                 }
-                right.deleteAddress(0);
+                parents.add(parent);
             }
-
-            duplicate = leafNode.getInternalNode();
+            nodes = new ArrayList<>(parents);
         }
 
-        // Case 3: Otherwise, merge with siblings, check the left sibling first
-        else {
-            if (left != null) {
-                for (int i = 0; i < leafNode.getKeys().size(); i++) {
-                    for (int j = 0; j < leafNode.getAddress(i).size(); j++) {
-                        left.setAddress(leafNode.getKey(i), leafNode.getAddress(i).get(j));
-                    }
-
-                }
-            } else {
-                for (int i = 0; i < leafNode.getKeys().size(); i++) {
-                    for (int j = 0; j < leafNode.getAddress(i).size(); j++) {
-                        right.setAddress(leafNode.getKey(i), leafNode.getAddress(i).get(j));
-                    }
+        // An emptied root with a single child is replaced by that child
+        while (!root.getIsLeaf() && ((InternalNode) root).getChildCount() == 1) {
+            Node child = ((InternalNode) root).removeChildAt(0);
+            child.setInternalNode(null);
+            child.setIsRoot(true);
+            root = child;
+            numNodes--;
+            numLevels--;
+        }
 
-                }
+        // Retry the nodes that had no sibling, as long as they have one now
+        ArrayList<Node> retry = new ArrayList<>();
+        for (Node node : deferred) {
+            if (!isRemoved(node) && !node.getIsRoot() && isUnderfull(node)
+                    && node.getInternalNode().getChildCount() > 1) {
+                retry.add(node);
             }
+        }
+        if (!retry.isEmpty()) {
+            rebalance(retry);
+        }
+    }
 
-            duplicate = leafNode.getInternalNode();
-
-            if (left == null) {
-                if (!duplicate.getIsRoot()) {
-                    left = searchLeafNode(duplicate.retrieveSmallestKey() - 1);
-                }
+    private void fixLeafNode(LeafNode leafNode) {
+        while (leafNode.getKeyCount() < minLeafKeys) {
+            InternalNode parent = leafNode.getInternalNode();
+            if (parent.getChildCount() == 1) {
+                return;
             }
-            if (left != null) {
+            int j = parent.indexOfChild(leafNode);
+            LeafNode left = j > 0 ? (LeafNode) parent.getChildNode(j - 1) : null;
+            LeafNode right = j + 1 < parent.getChildCount() ? (LeafNode) parent.getChildNode(j + 1) : null;
+
+            if (left != null && left.getKeyCount() > minLeafKeys) {
+                // Borrow the largest key of the left sibling
+                leafNode.addEntry(left, left.getKeyCount() - 1);
+                parent.setKeyAt(j - 1, leafNode.getKey(0));
+            } else if (right != null && right.getKeyCount() > minLeafKeys) {
+                // Borrow the smallest key of the right sibling
+                leafNode.addEntry(right, 0);
+                parent.setKeyAt(j, right.getKey(0));
+            } else if (left != null) {
+                // Merge into the left sibling
+                while (leafNode.getKeyCount() > 0) {
+                    left.addEntry(leafNode, 0);
+                }
                 left.setNextNode(leafNode.getNextNode());
+                removeChild(parent, j);
+                return;
+            } else {
+                // Leftmost child, merge the right sibling into this leaf
+                while (right.getKeyCount() > 0) {
+                    leafNode.addEntry(right, 0);
+                }
+                leafNode.setNextNode(right.getNextNode());
+                removeChild(parent, j + 1);
             }
-
-            leafNode.deleteNode();
-            numNodes--;
         }
-
-        // Update the parent node accordingly
-        cleanParentNode(duplicate);
     }
 
-    public void cleanParentNode(InternalNode parent) {
-        // Clean the parent node after key deficiency happens
-
-        // If the parent is root
-        // If it has more than 1 children, delete the first child node and insert it back to force update
-        // Otherwise delete the root and decrease the number of level
-        if (parent.getIsRoot()) {
-            if (parent.getChildNodes().size() > 1) {
-                Node child = parent.getChildNode(0); 
-                parent.deleteChildNode(child);
-                parent.insertChild(child);
+    private void fixInternalNode(InternalNode node) {
+        while (isUnderfull(node)) {
+            InternalNode parent = node.getInternalNode();
+            if (parent.getChildCount() == 1) {
                 return;
-            } else {
-                root = parent.getChildNode(0);
-                parent.getChildNode(0).setIsRoot(true);
-                parent.deleteNode();
-                numNodes--;
-                numLevels--;
+            }
+            int j = parent.indexOfChild(node);
+            InternalNode left = j > 0 ? (InternalNode) parent.getChildNode(j - 1) : null;
+            InternalNode right = j + 1 < parent.getChildCount() ? (InternalNode) parent.getChildNode(j + 1) : null;
+
+            if (left != null && left.getKeyCount() > minKeys(left)) {
+                // Rotate the last child of the left sibling through the parent
+                float leftKey = left.getKey(left.getKeyCount() - 1);
+                left.deleteKey(left.getKeyCount() - 1);
+                node.insertKeyAt(0, parent.getKey(j - 1));
+                node.insertChildAt(0, left.removeChildAt(left.getChildCount() - 1));
+                parent.setKeyAt(j - 1, leftKey);
+            } else if (right != null && right.getKeyCount() > minKeys(right)) {
+                // Rotate the first child of the right sibling through the parent
+                float rightKey = right.getKey(0);
+                right.deleteKey(0);
+                node.insertKeyAt(node.getKeyCount(), parent.getKey(j));
+                node.appendChild(right.removeChildAt(0));
+                parent.setKeyAt(j, rightKey);
+            } else if (left != null) {
+                // Merge into the left sibling, the separator between them moves down
+                mergeInternalNodes(left, parent.getKey(j - 1), node);
+                removeChild(parent, j);
                 return;
+            } else {
+                mergeInternalNodes(node, parent.getKey(j), right);
+                removeChild(parent, j + 1);
             }
         }
+    }
 
-        int required = minInternalKeys - parent.getKeys().size();
-        int leftExcess = 0;
-        int rightExcess = 0;
-
-        InternalNode leftSiblingNode = (InternalNode) parent.getInternalNode().getLeftSiblingNode(parent);
-        InternalNode rightSiblingNode = (InternalNode) parent.getInternalNode().getRightSiblingNode(parent);
-        InternalNode duplicate;
-
-        if (leftSiblingNode != null) {
-            leftExcess += leftSiblingNode.getKeys().size() - minInternalKeys;
+    private void mergeInternalNodes(InternalNode left, float separator, InternalNode right) {
+        left.insertKeyAt(left.getKeyCount(), separator);
+        for (int i = 0; i < right.getKeyCount(); i++) {
+            left.insertKeyAt(left.getKeyCount(), right.getKey(i));
         }
-
-        if (rightSiblingNode != null) {
-            rightExcess += rightSiblingNode.getKeys().size() - minInternalKeys;
+        while (right.getChildCount() > 0) {
+            left.appendChild(right.removeChildAt(0));
         }
+    }
 
-        // Case 1: If enough keys, no need to borrow or merge but need to update the key
-        // We only do manual update for Case 1
-        // Case 2 and 3 implies the deleteNode function has been called previously, which the key will be updated when calling the function
-        if (required <= 0) {
-            ArrayList<Float> keys = parent.getKeys();
-            parent.deleteAllKeys();
-            for (int i = 0; i < keys.size(); i++) {
-                Node childNode = parent.getChildNode(i + 1);
-                float key = childNode.retrieveSmallestKey();
-                parent.setKey(key);
-            }
-            duplicate = parent.getInternalNode();
-        } else {
-            // Case 2: Borrow key from siblings if possible, check the left sibling first
-            if (required <= leftExcess + rightExcess) {
-                if (leftSiblingNode != null && leftExcess > 0) {
-                    for (int i = 0; i < required; i++) {
-                        parent.insertChildToFront(
-                                leftSiblingNode.getChildNode(leftSiblingNode.getChildNodes().size() - 1));
-                        leftSiblingNode.deleteChildNode(
-                                leftSiblingNode.getChildNode(leftSiblingNode.getChildNodes().size() - 1));
-                    }
-                } else {
-                    for (int i = 0; i < required; i++) {
-                        parent.insertChild(rightSiblingNode.getChildNode(0));
-                        rightSiblingNode.deleteChildNode(rightSiblingNode.getChildNode(0));
-                    }
-                }
-                duplicate = parent.getInternalNode();
-            }
+    private void removeChild(InternalNode parent, int childIndex) {
+        // Detach a child emptied by a merge, along with the separator next to it
+        Node child = parent.removeChildAt(childIndex);
+        parent.deleteKey(childIndex > 0 ? childIndex - 1 : 0);
+        child.setInternalNode(null);
+        numNodes--;
+    }
 
-            else {
-                // Case 3: Otherwise, merge with siblings, check the left sibling first
-                if (leftSiblingNode == null) {
-                    for (int i = 0; i < parent.getChildNodes().size(); i++) {
-                        rightSiblingNode.insertChild(parent.getChildNode(i));
-                    }
-                } else {
-                    for (int i = 0; i < parent.getChildNodes().size(); i++) {
-                        leftSiblingNode.insertChild(parent.getChildNode(i));
-                    }
-                }
+    private boolean isUnderfull(Node node) {
+        return node.getKeyCount() < minKeys(node);
+    }
 
-                duplicate = parent.getInternalNode();
+    private int minKeys(Node node) {
+        // An internal node needs at least one key, even for block sizes where minInternalKeys is 0
+        return node.getIsLeaf() ? minLeafKeys : Math.max(minInternalKeys, 1);
+    }
 
-                parent.deleteNode();
-                numNodes--;
-            }
-        }
+    private static boolean isRemoved(Node node) {
+        // Merged away by an earlier step of the same rebalance
+        return !node.getIsRoot() && node.getInternalNode() == null;
+    }
 
-        cleanParentNode(duplicate);
+    public int getLevelCount() {
+        return numLevels;
     }
 
-    private ArrayList<Float> retrieveRangeOfKeys(float lowerBound, float upperBound) {
-        // Retrieve those keys in the B+ Tree that fall within the range specified to facilitate key removal
-        // The mechanism is similar to the retrieveRecordsWithKey function, but return the keys instead of records
-        ArrayList<Float> result = new ArrayList<>();
-        Node currNode = root;
-        InternalNode internalNode;
+    public int getNodeCount() {
+        return numNodes;
+    }
 
-        while (!currNode.getIsLeaf()) {
-            internalNode = (InternalNode) currNode;
-            for (int i = 0; i < internalNode.getKeys().size(); i++) {
-                if (Float.compare(lowerBound, internalNode.getKey(i)) <= 0) {
-                    currNode = internalNode.getChildNode(i);
-                    break;
-                }
-                if (i == internalNode.getKeys().size() - 1) {
-                    currNode = internalNode.getChildNode(i + 1);
-                    break;
-                }
-            }
-        }
-        LeafNode curr = (LeafNode) currNode;
-        boolean finish = false;
-        while (!finish && curr != null) {
-            for (int i = 0; i < curr.getKeys().size(); i++) {
-                if (curr.getKey(i) <= upperBound && Float.compare(lowerBound, curr.getKey(i)) <= 0) {
-                    result.add(curr.getKey(i));
-                    continue;
-                }
-                if (curr.getKey(i) > upperBound) {
-                    finish = true;
-                    break;
-                }
-            }
-            if (!finish) {
-                if (curr.getNextNode() != null) {
-                    curr = curr.getNextNode();
-                } else {
-                    break;
-                }
-            }
-        }
+    public AddressIterator addressIterator(float lowerBound, float upperBound) {
+        // Stream the addresses of the keys in [lowerBound, upperBound] instead of collecting them
+        return addressIterator(lowerBound, upperBound, Integer.MAX_VALUE);
+    }
 
-        return result;
+    public AddressIterator addressIterator(float lowerBound, float upperBound, int limit) {
+        // Stop after at most limit addresses, the cursor can be resumed from there
+        return new AddressIterator(this, lowerBound, upperBound, limit);
     }
 
     public ArrayList<Address> retrieveRecordsWithKey(float searchingKey) {
         // Retrieve records that match the searchingKey
         ArrayList<Address> result = new ArrayList<>();
-        int nodeAccess = 1;
-        Node currNode = root;
-        InternalNode internalNode;
+        int[] accessed = new int[1];
 
         // Traverse down the tree until we reach the leaf node
-        while (!currNode.getIsLeaf()) {
-            internalNode = (InternalNode) currNode;
-            for (int i = 0; i < internalNode.getKeys().size(); i++) {
-                if (Float.compare(searchingKey, internalNode.getKey(i)) <= 0) {
-                    currNode = internalNode.getChildNode(i);
-                    nodeAccess++;
-                    break;
-                }
-                if (i == internalNode.getKeys().size() - 1) {
-                    currNode = internalNode.getChildNode(i + 1);
-                    nodeAccess++;
-                    break;
-                }
-            }
-        }
-
-        LeafNode curr = (LeafNode) currNode;
+        LeafNode curr = findLeaf(searchingKey, false, accessed);
+        int nodeAccess = accessed[0];
         boolean finish = false;
 
         // Add the address of those records with key same as the searching key to the result
         // until we encounter a record with a larger key or there is no more record to explore
         while (!finish && curr != null) {
-            for (int i = 0; i < curr.getKeys().size(); i++) {
+            for (int i = 0; i < curr.getKeyCount(); i++) {
                 if (Float.compare(curr.getKey(i), searchingKey) == 0) {
                     result.addAll(curr.getAddress(i));
                     continue;
@@ -589,34 +659,13 @@ public class BPTree {
         // Retrieve records with range of keys through method overloading
         // The mechanism is similar to the version with only one parameter
         ArrayList<Address> addressResult = new ArrayList<>();
-        int nodeAccess = 1;
-        InternalNode tempIntNode;
-        Node thisNode = root;
-
-        while (thisNode.getIsLeaf() == false) {
-            tempIntNode = (InternalNode) thisNode;
-            int numKeys = tempIntNode.getKeys().size();
-            int lastIndex = numKeys - 1;
-            for (int ptr = 0; ptr < numKeys; ptr++) {
-                if (tempIntNode.getKey(ptr) >= lowerBound) {
-                    nodeAccess += 1;
-                    thisNode = tempIntNode.getChildNode(ptr);
-                    break;
-                }
-
-                if (ptr == lastIndex) {
-                    int target = lastIndex + 1;
-                    nodeAccess += 1;
-                    thisNode = tempIntNode.getChildNode(target);
-                    break;
-                }
-            }
-        }
+        int[] accessed = new int[1];
+        LeafNode currentLeafNode = findLeaf(lowerBound, false, accessed);
+        int nodeAccess = accessed[0];
 
         boolean end = false;
-        LeafNode currentLeafNode = (LeafNode) thisNode;
         while (end == false && currentLeafNode != null) {
-            for (int ptr = 0; ptr < currentLeafNode.getKeys().size(); ptr++) {
+            for (int ptr = 0; ptr < currentLeafNode.getKeyCount(); ptr++) {
 
                 float targetKey = currentLeafNode.getKey(ptr);
 
@@ -668,6 +717,104 @@ public class BPTree {
         return addressResult;
     }
 
+    public void save(String path, long checkpointLSN) throws IOException {
+        // Write the tree to a file in pre-order, so that it can be reloaded node by node without re-inserting keys
+        // The file is written next to the old one and renamed over it, so a crash leaves one of them intact
+        String tempPath = path + ".tmp";
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempPath)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(maxKeys);
+            out.writeLong(checkpointLSN);
+            out.writeInt(numLevels);
+            out.writeInt(numNodes);
+            writeNode(out, root);
+        }
+        Files.move(Paths.get(tempPath), Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        this.checkpointLSN = checkpointLSN;
+    }
+
+    public static BPTree load(String path, int blkSize) throws IOException {
+        // Rebuild a tree saved by save(), the node structure is restored exactly
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            BPTree tree = new BPTree(blkSize);
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION || in.readInt() != tree.maxKeys) {
+                throw new IOException("Not an index file for this block size: " + path);
+            }
+            tree.checkpointLSN = in.readLong();
+            tree.numLevels = in.readInt();
+            tree.numNodes = in.readInt();
+
+            // Leaves are read left to right, keep the last one to rebuild the leaf chain
+            LeafNode[] lastLeaf = new LeafNode[1];
+            tree.root = readNode(in, tree.maxKeys, lastLeaf);
+            tree.root.setIsRoot(true);
+            return tree;
+        }
+    }
+
+    private static void writeNode(DataOutputStream out, Node node) throws IOException {
+        int keyCount = node.getKeyCount();
+        out.writeBoolean(node.getIsLeaf());
+        out.writeInt(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            out.writeFloat(node.getKey(i));
+        }
+
+        if (node.getIsLeaf()) {
+            LeafNode leafNode = (LeafNode) node;
+            for (int i = 0; i < keyCount; i++) {
+                int addressCount = leafNode.getAddressCount(i);
+                out.writeInt(addressCount);
+                for (int j = 0; j < addressCount; j++) {
+                    // Same bytes as writing the block ID and then the offset
+                    out.writeLong(leafNode.getPackedAddress(i, j));
+                }
+            }
+        } else {
+            ArrayList<Node> children = ((InternalNode) node).getChildNodes();
+            out.writeInt(children.size());
+            for (Node child : children) {
+                writeNode(out, child);
+            }
+        }
+    }
+
+    private static Node readNode(DataInputStream in, int maxKeys, LeafNode[] lastLeaf) throws IOException {
+        boolean isLeaf = in.readBoolean();
+        int keyCount = in.readInt();
+        float[] keys = new float[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = in.readFloat();
+        }
+
+        if (isLeaf) {
+            LeafNode leafNode = new LeafNode(maxKeys + 1);
+            for (int i = 0; i < keyCount; i++) {
+                int addressCount = in.readInt();
+                for (int j = 0; j < addressCount; j++) {
+                    leafNode.addPackedAddress(keys[i], in.readLong());
+                }
+            }
+            if (lastLeaf[0] != null) {
+                lastLeaf[0].setNextNode(leafNode);
+            }
+            lastLeaf[0] = leafNode;
+            return leafNode;
+        }
+
+        InternalNode internalNode = new InternalNode(maxKeys);
+        for (int i = 0; i < keyCount; i++) {
+            internalNode.setKey(keys[i]);
+        }
+        int childCount = in.readInt();
+        for (int i = 0; i < childCount; i++) {
+            internalNode.appendChild(readNode(in, maxKeys, lastLeaf));
+        }
+        return internalNode;
+    }
+
     public void printInfo() {
         // Print out the infomation of the B+Tree
         InternalNode rootDuplicate = (InternalNode) root;
@@ -675,7 +822,7 @@ public class BPTree {
         System.out.println("The parameter n of the B+ tree: " + this.maxKeys);
         System.out.println("The number of nodes of the B+ tree: " + this.numNodes);
         System.out.println("The number of levels of the B+ tree: " + this.numLevels);
-        System.out.println("The content of the root node (only the keys): " + rootDuplicate.getKeys().toString());
+        System.out.println("The content of the root node (only the keys): " + rootDuplicate.keysToString());
     }
 
     public void printTree() {
@@ -706,11 +853,9 @@ public class BPTree {
                     }
                 }
 
-                ArrayList<Float> keysSet = new ArrayList<>();
-                keysSet = temp.getKeys();
                 System.out.print("[");
-                for (int j = 0; j < keysSet.size(); j++) {
-                    System.out.print(keysSet.get(j) + ", ");
+                for (int j = 0; j < temp.getKeyCount(); j++) {
+                    System.out.print(temp.getKey(j) + ", ");
                 }
                 System.out.print("]");
 
@@ -736,11 +881,9 @@ public class BPTree {
                     }
                 }
 
-                ArrayList<Float> keysSet = new ArrayList<>();
-                keysSet = temp.getKeys();
                 System.out.print("[");
-                for (int j = 0; j < keysSet.size(); j++) {
-                    System.out.print(keysSet.get(j) + ", ");
+                for (int j = 0; j < temp.getKeyCount(); j++) {
+                    System.out.print(temp.getKey(j) + ", ");
                 }
                 System.out.print("]");
             }
@@ -0,0 +1,377 @@
+package index;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ConcurrentBPTree {
+    // Thread-safe B+ tree from keys to packed addresses (see storage.Address.pack) using latch crabbing:
+    // every node has a read/write latch, and a child is latched before the latch of its parent is released
+    // Readers only take read latches, so they never block each other
+    // A writer first descends with read latches and write-latches the leaf only, which is enough unless the
+    // leaf has to split; it then descends again with write latches and keeps only the ancestors a split can
+    // reach, i.e. those above the lowest node that still has room for one more key
+    // Removals work the same way: the leaf alone is enough unless it would drop below minKeys, otherwise the
+    // second descent keeps the ancestors above the lowest node with a key to spare, and a node left with too
+    // few keys borrows one from a sibling or is merged with it, the sibling being latched under its parent
+    // The nodes are shared with LongBPTree (see LongNode), the float keys are kept as BPTree.sortableBits
+    private static final int MAX_HEIGHT = 32;
+
+    private final int maxKeys;
+    private final int minKeys; // Fewest keys of a node other than the root
+    private final ReentrantReadWriteLock rootLatch; // Guards the root pointer itself
+    private LongNode root;
+    private final AtomicInteger levelCount;
+    private final LongAdder splitCount;
+    private final LongAdder mergeCount;
+    private final LongAdder pessimisticCount;
+
+    public ConcurrentBPTree(int blkSize) {
+        // Same node size as BPTree
+        this.maxKeys = BPTree.maxKeysFor(blkSize);
+        this.minKeys = maxKeys / 2;
+        this.rootLatch = new ReentrantReadWriteLock();
+        this.root = new LongLeafNode(maxKeys + 1, true, 0);
+        this.levelCount = new AtomicInteger(1);
+        this.splitCount = new LongAdder();
+        this.mergeCount = new LongAdder();
+        this.pessimisticCount = new LongAdder();
+    }
+
+    public interface AddressConsumer {
+        // Called with the leaf read-latched, so it must not modify the tree
+        void accept(float key, long packedAddress);
+    }
+
+    public void insertKey(float value, long packedAddress) {
+        long key = BPTree.sortableBits(value);
+        if (!insertOptimistic(key, packedAddress)) {
+            pessimisticCount.increment();
+            insertPessimistic(key, packedAddress);
+        }
+    }
+
+    public boolean removeAddress(float value, long packedAddress) {
+        // Remove one address of the key, returns false if the key has no such address
+        long key = BPTree.sortableBits(value);
+        LongLeafNode leaf = findLeaf(key, true);
+        try {
+            if (isSafeForRemoval(leaf, key)) {
+                return leaf.remove(key, packedAddress) >= 0;
+            }
+        } finally {
+            leaf.latch.writeLock().unlock();
+        }
+        pessimisticCount.increment();
+        return removePessimistic(key, packedAddress);
+    }
+
+    public int forEachAddress(float lowerBound, float upperBound, AddressConsumer consumer) {
+        // Hand every address of the keys in [lowerBound, upperBound] to the consumer in key order
+        // The next leaf is latched before the current one is released, and latches are only ever taken
+        // from left to right along the chain and from the root down, so scans cannot deadlock with writers
+        int count = 0;
+        long lowerKey = BPTree.sortableBits(lowerBound);
+        long upperKey = BPTree.sortableBits(upperBound);
+        LongLeafNode leaf = findLeaf(lowerKey, false);
+        int i = leaf.lowerBound(lowerKey);
+        while (true) {
+            for (; i < leaf.keyCount; i++) {
+                if (leaf.keys[i] > upperKey) {
+                    leaf.latch.readLock().unlock();
+                    return count;
+                }
+                float key = BPTree.fromSortableBits((int) leaf.keys[i]);
+                long[] postings = leaf.postings[i];
+                for (int j = 0; j < leaf.postingCounts[i]; j++) {
+                    consumer.accept(key, postings[j]);
+                }
+                count += leaf.postingCounts[i];
+            }
+
+            LongLeafNode next = leaf.next;
+            if (next != null) {
+                next.latch.readLock().lock();
+            }
+            leaf.latch.readLock().unlock();
+            if (next == null) {
+                return count;
+            }
+            leaf = next;
+            i = 0;
+        }
+    }
+
+    public int countAddresses(float lowerBound, float upperBound) {
+        return forEachAddress(lowerBound, upperBound, (key, packedAddress) -> {
+        });
+    }
+
+    public int getLevelCount() {
+        return levelCount.get();
+    }
+
+    public long getSplitCount() {
+        return splitCount.sum();
+    }
+
+    public long getMergeCount() {
+        return mergeCount.sum();
+    }
+
+    public long getPessimisticCount() {
+        // Insertions and removals that had to descend a second time with write latches
+        return pessimisticCount.sum();
+    }
+
+    private LongLeafNode findLeaf(long key, boolean exclusive) {
+        // Descend with read latches and return the leaf for the key latched, write-latched if exclusive
+        rootLatch.readLock().lock();
+        LongNode node = root;
+        latch(node, exclusive && node instanceof LongLeafNode);
+        rootLatch.readLock().unlock();
+
+        while (node instanceof LongInternalNode) {
+            LongNode child = ((LongInternalNode) node).children[node.upperBound(key)];
+            latch(child, exclusive && child instanceof LongLeafNode);
+            node.latch.readLock().unlock();
+            node = child;
+        }
+        return (LongLeafNode) node;
+    }
+
+    private boolean insertOptimistic(long key, long packedAddress) {
+        // Insert with only the leaf write-latched, fails if the leaf is full and would have to split
+        LongLeafNode leaf = findLeaf(key, true);
+        try {
+            if (!isSafe(leaf, key)) {
+                return false;
+            }
+            leaf.add(key, packedAddress, null);
+            return true;
+        } finally {
+            leaf.latch.writeLock().unlock();
+        }
+    }
+
+    private void insertPessimistic(long key, long packedAddress) {
+        // path[0..depth] is the path from the root, the nodes from path[heldFrom] on are write-latched
+        // childIndex[d] is the child of path[d] taken to reach path[d + 1]
+        LongNode[] path = new LongNode[MAX_HEIGHT];
+        int[] childIndex = new int[MAX_HEIGHT];
+        int depth = 0;
+        int heldFrom = 0;
+
+        rootLatch.writeLock().lock();
+        boolean rootHeld = true;
+        LongNode node = root;
+        node.latch.writeLock().lock();
+        path[0] = node;
+        if (isSafe(node, key)) {
+            rootLatch.writeLock().unlock();
+            rootHeld = false;
+        }
+
+        try {
+            while (node instanceof LongInternalNode) {
+                int i = node.upperBound(key);
+                LongNode child = ((LongInternalNode) node).children[i];
+                child.latch.writeLock().lock();
+                childIndex[depth] = i;
+                path[++depth] = child;
+                if (isSafe(child, key)) {
+                    // A split stops at this child, release everything above it
+                    if (rootHeld) {
+                        rootLatch.writeLock().unlock();
+                        rootHeld = false;
+                    }
+                    for (int d = heldFrom; d < depth; d++) {
+                        path[d].latch.writeLock().unlock();
+                    }
+                    heldFrom = depth;
+                }
+                node = child;
+            }
+
+            ((LongLeafNode) node).add(key, packedAddress, null);
+
+            // Split upwards while a node holds one key too many, every node touched here is write-latched
+            int d = depth;
+            LongNode overflow = node;
+            while (overflow.keyCount > maxKeys) {
+                splitCount.increment();
+                LongNode sibling;
+                long separator;
+                if (overflow instanceof LongLeafNode) {
+                    sibling = ((LongLeafNode) overflow).split();
+                    separator = sibling.keys[0];
+                } else {
+                    separator = overflow.keys[overflow.keyCount / 2];
+                    sibling = ((LongInternalNode) overflow).split(overflow.keyCount / 2);
+                }
+
+                if (d == 0) {
+                    // The root split, the root latch is still held since the root was not safe
+                    LongInternalNode newRoot = new LongInternalNode(maxKeys + 1, true);
+                    newRoot.children[0] = overflow;
+                    newRoot.insertChild(0, separator, sibling);
+                    root = newRoot;
+                    levelCount.incrementAndGet();
+                    break;
+                }
+                LongInternalNode parent = (LongInternalNode) path[d - 1];
+                parent.insertChild(childIndex[d - 1], separator, sibling);
+                overflow = parent;
+                d--;
+            }
+        } finally {
+            for (int d = heldFrom; d <= depth; d++) {
+                path[d].latch.writeLock().unlock();
+            }
+            if (rootHeld) {
+                rootLatch.writeLock().unlock();
+            }
+        }
+    }
+
+    private boolean removePessimistic(long key, long packedAddress) {
+        // Same descent as insertPessimistic, keeping the ancestors a merge can reach
+        // The root only needs one key, and a root leaf may even be left empty
+        LongNode[] path = new LongNode[MAX_HEIGHT];
+        int[] childIndex = new int[MAX_HEIGHT];
+        int depth = 0;
+        int heldFrom = 0;
+
+        rootLatch.writeLock().lock();
+        boolean rootHeld = true;
+        LongNode node = root;
+        node.latch.writeLock().lock();
+        path[0] = node;
+        if (node instanceof LongLeafNode || node.keyCount > 1) {
+            rootLatch.writeLock().unlock();
+            rootHeld = false;
+        }
+
+        try {
+            while (node instanceof LongInternalNode) {
+                int i = node.upperBound(key);
+                LongNode child = ((LongInternalNode) node).children[i];
+                child.latch.writeLock().lock();
+                childIndex[depth] = i;
+                path[++depth] = child;
+                if (isSafeForRemoval(child, key)) {
+                    // A merge stops at this child, release everything above it
+                    if (rootHeld) {
+                        rootLatch.writeLock().unlock();
+                        rootHeld = false;
+                    }
+                    for (int d = heldFrom; d < depth; d++) {
+                        path[d].latch.writeLock().unlock();
+                    }
+                    heldFrom = depth;
+                }
+                node = child;
+            }
+
+            if (((LongLeafNode) node).remove(key, packedAddress) < 0) {
+                return false;
+            }
+
+            // Fix the nodes left with too few keys upwards, every node touched here is write-latched
+            for (int d = depth; d > heldFrom && path[d].keyCount < minKeys; d--) {
+                rebalance((LongInternalNode) path[d - 1], childIndex[d - 1]);
+            }
+            if (rootHeld && root instanceof LongInternalNode && root.keyCount == 0) {
+                // The root lost its last key, its only child becomes the root
+                root = ((LongInternalNode) root).children[0];
+                levelCount.decrementAndGet();
+            }
+            return true;
+        } finally {
+            for (int d = heldFrom; d <= depth; d++) {
+                path[d].latch.writeLock().unlock();
+            }
+            if (rootHeld) {
+                rootLatch.writeLock().unlock();
+            }
+        }
+    }
+
+    private void rebalance(LongInternalNode parent, int i) {
+        // The child at i of the write-latched parent has too few keys, it borrows a key from a sibling that
+        // has one to spare or the right one of the two is merged into the left one
+        // Siblings are latched from left to right like the leaf chain is scanned, so the latch of a last child
+        // is released while its left sibling is latched; the parent latch keeps writers away meanwhile
+        LongNode child = parent.children[i];
+        LongNode left;
+        LongNode right;
+        int separator;
+        if (i < parent.keyCount) {
+            left = child;
+            right = parent.children[i + 1];
+            right.latch.writeLock().lock();
+            separator = i;
+        } else {
+            left = parent.children[i - 1];
+            right = child;
+            child.latch.writeLock().unlock();
+            left.latch.writeLock().lock();
+            child.latch.writeLock().lock();
+            separator = i - 1;
+        }
+        LongNode sibling = left == child ? right : left;
+
+        try {
+            if (sibling.keyCount > minKeys) {
+                if (left instanceof LongLeafNode) {
+                    if (sibling == right) {
+                        ((LongLeafNode) left).takeFirst((LongLeafNode) right);
+                    } else {
+                        ((LongLeafNode) right).takeLast((LongLeafNode) left);
+                    }
+                    parent.keys[separator] = right.keys[0];
+                } else if (sibling == right) {
+                    parent.keys[separator] = ((LongInternalNode) left).takeFirst(parent.keys[separator], (LongInternalNode) right);
+                } else {
+                    parent.keys[separator] = ((LongInternalNode) right).takeLast((LongInternalNode) left, parent.keys[separator]);
+                }
+                return;
+            }
+
+            mergeCount.increment();
+            if (left instanceof LongLeafNode) {
+                ((LongLeafNode) left).merge((LongLeafNode) right);
+            } else {
+                ((LongInternalNode) left).merge(parent.keys[separator], (LongInternalNode) right);
+            }
+            parent.removeChild(separator);
+        } finally {
+            sibling.latch.writeLock().unlock();
+        }
+    }
+
+    private boolean isSafeForRemoval(LongNode node, long key) {
+        // True if removing one address of the key cannot leave the node with too few keys
+        if (node instanceof LongLeafNode && node.keyCount <= minKeys) {
+            int i = node.indexOf(key);
+            return i < 0 || ((LongLeafNode) node).postingCounts[i] > 1;
+        }
+        return node.keyCount > minKeys;
+    }
+
+    private boolean isSafe(LongNode node, long key) {
+        // True if inserting the key cannot split the node
+        if (node instanceof LongLeafNode) {
+            return node.keyCount < maxKeys || node.indexOf(key) >= 0;
+        }
+        return node.keyCount < maxKeys;
+    }
+
+    private static void latch(LongNode node, boolean exclusive) {
+        if (exclusive) {
+            node.latch.writeLock().lock();
+        } else {
+            node.latch.readLock().lock();
+        }
+    }
+}
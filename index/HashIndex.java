@@ -0,0 +1,445 @@
+package index;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import config.Const;
+import storage.Address;
+import storage.Block;
+import storage.Column;
+import storage.Disk;
+
+public class HashIndex implements Disk.RecordListener {
+    // Extendible hash index from the values of one column to packed addresses, for equality lookups only
+    // Entries live in pages of blkSize bytes, like the data blocks; the directory maps the low globalDepth bits
+    // of the hash of a key to the page of its bucket, several slots sharing a page whose localDepth is smaller
+    // A bucket holds one entry per key, pointing to the postings pages that hold the addresses of its records, so
+    // a lookup reads the page of the bucket and then only the addresses of the key, however frequent it is
+    // A full bucket is split in two on the next bit of the hash, doubling the directory only when its
+    // localDepth already equals globalDepth, so the index grows one bucket at a time without a full rehash
+    // A bucket whose keys all share one hash cannot be split apart, it gets an overflow page instead
+    // Emptied buckets are not merged
+    // Nothing is saved or logged, the index is rebuilt from the blocks whenever the database is opened
+    //
+    // Bucket page layout: localDepth (4B), entry count (4B), next overflow page or -1 (4B), hash shared by every
+    // entry (4B), 1 if the entries have different hashes (4B), then entries of key (4B), address count (4B) and
+    // first postings page (4B). The depth and the hashes are only kept in the first page of a bucket
+    // Postings page layout: address count (4B), next postings page or -1 (4B), then packed addresses (8B)
+    private static final int LOCAL_DEPTH = 0;
+    private static final int ENTRY_COUNT = 4;
+    private static final int NEXT_PAGE = 8;
+    private static final int SHARED_HASH = 12;
+    private static final int MIXED_HASHES = 16;
+    private static final int HEADER_SIZE = 20;
+    private static final int ENTRY_SIZE = 12;
+    private static final int POSTINGS_COUNT = 0;
+    private static final int POSTINGS_NEXT = 4;
+    private static final int POSTINGS_HEADER_SIZE = 8;
+    private static final int MAX_DEPTH = 24; // Beyond this, colliding hashes go to overflow pages as well
+
+    private final Column column;
+    private final int blkSize;
+    private final int pageCapacity; // Entries per bucket page
+    private final int postingsCapacity; // Addresses per postings page
+    private final ArrayList<ByteBuffer> pages;
+    private final ArrayList<Integer> freePages; // Pages released by removals
+    private int[] directory;
+    private int globalDepth;
+    private int overflowPageCount;
+    private int postingsPageCount;
+    private int keyCount;
+    private int entryCount;
+
+    public HashIndex(Column column, int blkSize) {
+        this.column = column;
+        this.blkSize = blkSize;
+        this.pageCapacity = (blkSize - HEADER_SIZE) / ENTRY_SIZE;
+        this.postingsCapacity = (blkSize - POSTINGS_HEADER_SIZE) / 8;
+        this.pages = new ArrayList<>();
+        this.freePages = new ArrayList<>();
+        this.directory = new int[] { allocateBucketPage(0) };
+        this.globalDepth = 0;
+    }
+
+    public static int floatKey(float value) {
+        // Adding 0 turns -0.0 into 0.0, so both find the same entries
+        return Float.floatToIntBits(value + 0.0f);
+    }
+
+    public int keyOf(Block block, int offset) {
+        // Key of the record at offset of the block: the value of an int column, the bits of a float (see
+        // floatKey) or the date as yyyymmdd
+        if (column.isFloat()) {
+            return floatKey(block.getFloat(offset, column));
+        }
+        return block.getValue(offset, column);
+    }
+
+    private static int hash(int key) {
+        // Finalizer of MurmurHash3, so the low bits used by the directory depend on every bit of the key
+        key ^= key >>> 16;
+        key *= 0x85EBCA6B;
+        key ^= key >>> 13;
+        key *= 0xC2B2AE35;
+        return key ^ (key >>> 16);
+    }
+
+    private int allocatePage() {
+        if (freePages.isEmpty()) {
+            pages.add(Const.DIRECT_BLOCK_BUFFER ? ByteBuffer.allocateDirect(blkSize) : ByteBuffer.allocate(blkSize));
+            return pages.size() - 1;
+        }
+        return freePages.remove(freePages.size() - 1);
+    }
+
+    private int allocateBucketPage(int localDepth) {
+        int pageID = allocatePage();
+        ByteBuffer page = pages.get(pageID);
+        page.putInt(LOCAL_DEPTH, localDepth);
+        page.putInt(ENTRY_COUNT, 0);
+        page.putInt(NEXT_PAGE, -1);
+        page.putInt(SHARED_HASH, 0);
+        page.putInt(MIXED_HASHES, 0);
+        return pageID;
+    }
+
+    private int allocatePostingsPage(int next) {
+        int pageID = allocatePage();
+        ByteBuffer page = pages.get(pageID);
+        page.putInt(POSTINGS_COUNT, 0);
+        page.putInt(POSTINGS_NEXT, next);
+        postingsPageCount++;
+        return pageID;
+    }
+
+    private static int entryPosition(int index) {
+        return HEADER_SIZE + index * ENTRY_SIZE;
+    }
+
+    private static int postingPosition(int index) {
+        return POSTINGS_HEADER_SIZE + index * 8;
+    }
+
+    private int bucketOf(int key) {
+        return directory[hash(key) & ((1 << globalDepth) - 1)];
+    }
+
+    @Override
+    public void recordInserted(Block block, Address address) {
+        insert(keyOf(block, address.offset), Address.pack(address.blockID, address.offset));
+    }
+
+    @Override
+    public void recordDeleted(Block block, Address address) throws Exception {
+        if (!remove(keyOf(block, address.offset), Address.pack(address.blockID, address.offset))) {
+            throw new Exception("Record missing from the hash index on " + column);
+        }
+    }
+
+    public void insert(int key, long packedAddress) {
+        // A known key gets the address added to its first postings page, a new page is put in front once it is full
+        for (int pageID = bucketOf(key); pageID >= 0; pageID = pages.get(pageID).getInt(NEXT_PAGE)) {
+            ByteBuffer page = pages.get(pageID);
+            for (int i = 0; i < page.getInt(ENTRY_COUNT); i++) {
+                int position = entryPosition(i);
+                if (page.getInt(position) != key) {
+                    continue;
+                }
+                int postingsID = page.getInt(position + 8);
+                if (pages.get(postingsID).getInt(POSTINGS_COUNT) == postingsCapacity) {
+                    postingsID = allocatePostingsPage(postingsID);
+                    page.putInt(position + 8, postingsID);
+                }
+                addPosting(postingsID, packedAddress);
+                page.putInt(position + 4, page.getInt(position + 4) + 1);
+                entryCount++;
+                return;
+            }
+        }
+
+        int postingsID = allocatePostingsPage(-1);
+        addPosting(postingsID, packedAddress);
+        addEntry(key, 1, postingsID);
+        keyCount++;
+        entryCount++;
+    }
+
+    private void addPosting(int postingsID, long packedAddress) {
+        ByteBuffer page = pages.get(postingsID);
+        int count = page.getInt(POSTINGS_COUNT);
+        page.putLong(postingPosition(count), packedAddress);
+        page.putInt(POSTINGS_COUNT, count + 1);
+    }
+
+    private void addEntry(int key, int addressCount, int postingsID) {
+        // Put the entry of a key that is not in the index yet into its bucket, splitting the bucket while it is
+        // full and its entries do not all share one hash, otherwise chaining an overflow page to it
+        int hash = hash(key);
+        while (true) {
+            int bucket = directory[hash & ((1 << globalDepth) - 1)];
+            ByteBuffer first = pages.get(bucket);
+            // First page of the chain with room for the entry
+            int pageID = bucket;
+            int lastPageID = bucket;
+            while (pageID >= 0 && pages.get(pageID).getInt(ENTRY_COUNT) == pageCapacity) {
+                lastPageID = pageID;
+                pageID = pages.get(pageID).getInt(NEXT_PAGE);
+            }
+            if (pageID < 0) {
+                boolean mixed = first.getInt(MIXED_HASHES) != 0 || first.getInt(SHARED_HASH) != hash;
+                if (first.getInt(LOCAL_DEPTH) < MAX_DEPTH && mixed) {
+                    splitBucket(bucket);
+                    continue;
+                }
+                pageID = allocateBucketPage(-1);
+                pages.get(lastPageID).putInt(NEXT_PAGE, pageID);
+                overflowPageCount++;
+            }
+
+            if (first.getInt(ENTRY_COUNT) == 0 && first.getInt(NEXT_PAGE) < 0) {
+                first.putInt(SHARED_HASH, hash);
+                first.putInt(MIXED_HASHES, 0);
+            } else if (first.getInt(SHARED_HASH) != hash) {
+                first.putInt(MIXED_HASHES, 1);
+            }
+            ByteBuffer page = pages.get(pageID);
+            int count = page.getInt(ENTRY_COUNT);
+            page.putInt(entryPosition(count), key);
+            page.putInt(entryPosition(count) + 4, addressCount);
+            page.putInt(entryPosition(count) + 8, postingsID);
+            page.putInt(ENTRY_COUNT, count + 1);
+            return;
+        }
+    }
+
+    private void splitBucket(int bucket) {
+        // Move the entries with the next bit of their hash set to a new bucket, the chain is rebuilt on both sides
+        // The postings pages stay where they are, only the entries pointing to them move
+        int localDepth = pages.get(bucket).getInt(LOCAL_DEPTH);
+        if (localDepth == globalDepth) {
+            directory = Arrays.copyOf(directory, directory.length * 2);
+            System.arraycopy(directory, 0, directory, directory.length / 2, directory.length / 2);
+            globalDepth++;
+        }
+
+        // Take the entries out of the whole chain and release its overflow pages
+        ArrayList<int[]> entries = new ArrayList<>();
+        for (int pageID = bucket; pageID >= 0;) {
+            ByteBuffer page = pages.get(pageID);
+            for (int i = 0; i < page.getInt(ENTRY_COUNT); i++) {
+                int position = entryPosition(i);
+                entries.add(new int[] { page.getInt(position), page.getInt(position + 4), page.getInt(position + 8) });
+            }
+            int next = page.getInt(NEXT_PAGE);
+            if (pageID != bucket) {
+                freePages.add(pageID);
+                overflowPageCount--;
+            }
+            pageID = next;
+        }
+        ByteBuffer page = pages.get(bucket);
+        page.putInt(LOCAL_DEPTH, localDepth + 1);
+        page.putInt(ENTRY_COUNT, 0);
+        page.putInt(NEXT_PAGE, -1);
+
+        int sibling = allocateBucketPage(localDepth + 1);
+        int bit = 1 << localDepth;
+        for (int i = 0; i < directory.length; i++) {
+            if (directory[i] == bucket && (i & bit) != 0) {
+                directory[i] = sibling;
+            }
+        }
+
+        for (int[] entry : entries) {
+            addEntry(entry[0], entry[1], entry[2]);
+        }
+    }
+
+    public boolean remove(int key, long packedAddress) {
+        // The last address of the postings page takes the place of the removed one, an emptied postings page is
+        // released, and so is the entry of the key once its last address is gone, the last entry of the page
+        // taking its place
+        int bucket = bucketOf(key);
+        int previousPageID = -1;
+        for (int pageID = bucket; pageID >= 0; pageID = pages.get(pageID).getInt(NEXT_PAGE)) {
+            ByteBuffer page = pages.get(pageID);
+            int count = page.getInt(ENTRY_COUNT);
+            for (int i = 0; i < count; i++) {
+                int position = entryPosition(i);
+                if (page.getInt(position) != key) {
+                    continue;
+                }
+                if (!removePosting(page, position, packedAddress)) {
+                    return false;
+                }
+                entryCount--;
+                if (page.getInt(position + 4) > 0) {
+                    return true;
+                }
+
+                page.putInt(position, page.getInt(entryPosition(count - 1)));
+                page.putInt(position + 4, page.getInt(entryPosition(count - 1) + 4));
+                page.putInt(position + 8, page.getInt(entryPosition(count - 1) + 8));
+                page.putInt(ENTRY_COUNT, count - 1);
+                if (count == 1 && pageID != bucket) {
+                    pages.get(previousPageID).putInt(NEXT_PAGE, page.getInt(NEXT_PAGE));
+                    freePages.add(pageID);
+                    overflowPageCount--;
+                }
+                keyCount--;
+                return true;
+            }
+            previousPageID = pageID;
+        }
+        return false;
+    }
+
+    private boolean removePosting(ByteBuffer bucketPage, int position, long packedAddress) {
+        // Remove the address from the postings of the entry at position of the bucket page
+        int previousID = -1;
+        for (int postingsID = bucketPage.getInt(position + 8); postingsID >= 0;) {
+            ByteBuffer page = pages.get(postingsID);
+            int count = page.getInt(POSTINGS_COUNT);
+            int next = page.getInt(POSTINGS_NEXT);
+            for (int i = 0; i < count; i++) {
+                if (page.getLong(postingPosition(i)) != packedAddress) {
+                    continue;
+                }
+                page.putLong(postingPosition(i), page.getLong(postingPosition(count - 1)));
+                page.putInt(POSTINGS_COUNT, count - 1);
+                if (count == 1) {
+                    if (previousID < 0) {
+                        bucketPage.putInt(position + 8, next);
+                    } else {
+                        pages.get(previousID).putInt(POSTINGS_NEXT, next);
+                    }
+                    freePages.add(postingsID);
+                    postingsPageCount--;
+                }
+                bucketPage.putInt(position + 4, bucketPage.getInt(position + 4) - 1);
+                return true;
+            }
+            previousID = postingsID;
+            postingsID = next;
+        }
+        return false;
+    }
+
+    public Cursor cursor(int key) {
+        // Addresses of the records with the key, in no particular order
+        return new Cursor(key);
+    }
+
+    public int countAddresses(int key) {
+        // Read from the entry of the key, without reading its postings
+        for (int pageID = bucketOf(key); pageID >= 0; pageID = pages.get(pageID).getInt(NEXT_PAGE)) {
+            ByteBuffer page = pages.get(pageID);
+            for (int i = 0; i < page.getInt(ENTRY_COUNT); i++) {
+                if (page.getInt(entryPosition(i)) == key) {
+                    return page.getInt(entryPosition(i) + 4);
+                }
+            }
+        }
+        return 0;
+    }
+
+    public class Cursor {
+        // Finds the entry of the key in its bucket, then walks its postings pages
+        // The index must not be modified while the cursor is in use
+        private int pageID; // Postings page, -1 once done
+        private int index;
+        private int pageAccess;
+
+        private Cursor(int key) {
+            this.pageID = -1;
+            for (int bucketID = bucketOf(key); bucketID >= 0; bucketID = pages.get(bucketID).getInt(NEXT_PAGE)) {
+                pageAccess++;
+                ByteBuffer page = pages.get(bucketID);
+                for (int i = 0; i < page.getInt(ENTRY_COUNT) && pageID < 0; i++) {
+                    if (page.getInt(entryPosition(i)) == key) {
+                        pageID = page.getInt(entryPosition(i) + 8);
+                    }
+                }
+                if (pageID >= 0) {
+                    pageAccess++;
+                    break;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            while (pageID >= 0 && index == pages.get(pageID).getInt(POSTINGS_COUNT)) {
+                pageID = pages.get(pageID).getInt(POSTINGS_NEXT);
+                index = 0;
+                if (pageID >= 0) {
+                    pageAccess++;
+                }
+            }
+            return pageID >= 0;
+        }
+
+        public long next() {
+            // Packed address, hasNext must have returned true
+            return pages.get(pageID).getLong(postingPosition(index++));
+        }
+
+        public int getPageAccessCount() {
+            // Index pages read so far, bucket and postings pages
+            return pageAccess;
+        }
+    }
+
+    public Column getColumn() {
+        return column;
+    }
+
+    public int getPageCapacity() {
+        // Keys per bucket page
+        return pageCapacity;
+    }
+
+    public int getPostingsCapacity() {
+        // Addresses per postings page
+        return postingsCapacity;
+    }
+
+    public int getPageCount() {
+        return pages.size() - freePages.size();
+    }
+
+    public int getOverflowPageCount() {
+        return overflowPageCount;
+    }
+
+    public int getPostingsPageCount() {
+        return postingsPageCount;
+    }
+
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public int getEntryCount() {
+        // Addresses indexed
+        return entryCount;
+    }
+
+    public void printInfo() {
+        System.out.println();
+        System.out.println("Hash index on " + column);
+        System.out.println("------------------------------------------------------------------");
+        System.out.println("The number of keys in a bucket page: " + pageCapacity);
+        System.out.println("The number of addresses in a postings page: " + postingsCapacity);
+        System.out.println("The number of pages of the hash index: " + getPageCount());
+        System.out.println("The number of overflow pages: " + overflowPageCount);
+        System.out.println("The number of postings pages: " + postingsPageCount);
+        System.out.println("The global depth of the directory: " + globalDepth);
+        System.out.println("The number of keys indexed: " + keyCount);
+        System.out.println("The number of records indexed: " + entryCount);
+    }
+}
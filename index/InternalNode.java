@@ -5,8 +5,8 @@ import java.util.ArrayList;
 public class InternalNode extends Node {
     private ArrayList<Node> childNodesSet;
 
-    public InternalNode() {
-        super();
+    public InternalNode(int capacity) {
+        super(capacity);
         this.setIsLeaf(false);
         this.setIsRoot(false);
         childNodesSet = new ArrayList<Node>();
@@ -53,6 +53,36 @@ public class InternalNode extends Node {
         return targetPos;
     }
 
+    //Visibility: Package
+    void appendChild(Node newChild) {
+        // Append a child without recomputing the keys, used when loading a saved tree
+        childNodesSet.add(newChild);
+        newChild.setInternalNode(this);
+    }
+
+    //Visibility: Package
+    int getChildCount() {
+        return childNodesSet.size();
+    }
+
+    //Visibility: Package
+    int indexOfChild(Node child) {
+        return childNodesSet.indexOf(child);
+    }
+
+    //Visibility: Package
+    void insertChildAt(int targetIndex, Node newChild) {
+        // Insert a child without recomputing the keys, the caller places the separator
+        childNodesSet.add(targetIndex, newChild);
+        newChild.setInternalNode(this);
+    }
+
+    //Visibility: Package
+    Node removeChildAt(int targetIndex) {
+        // Remove a child without recomputing the keys, the caller removes the separator
+        return childNodesSet.remove(targetIndex);
+    }
+
     public void insertChildToFront(Node newChild) {
         // Insert this new child to the front.
         childNodesSet.add(0, newChild);
@@ -1,74 +1,150 @@
 package index;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import storage.Address;
 
 public class LeafNode extends Node {
-    private ArrayList<ArrayList<Address>> addressesSet;
+    // Addresses of the records of each key, packed with Address.pack, in postingsSet[i][0, postingCounts[i])
+    // sorted in ascending order, so the addresses of a key come in block order and a cursor can seek among them
+    // Kept in step with the keys, so entry i holds the addresses of getKey(i)
+    private long[][] postingsSet;
+    private int[] postingCounts;
     private LeafNode nextLeafNode;
 
-    public LeafNode() {
-        super();
+    public LeafNode(int capacity) {
+        super(capacity);
         super.setIsLeaf(true);
         super.setIsRoot(false);
-        this.addressesSet = new ArrayList<ArrayList<Address>>();
+        this.postingsSet = new long[capacity][];
+        this.postingCounts = new int[capacity];
         this.nextLeafNode = null;
     }
 
+    public int getAddressCount(int targetIndex) {
+        // Number of records with the key at targetIndex
+        checkIndex(targetIndex);
+        return postingCounts[targetIndex];
+    }
+
+    public long getPackedAddress(int targetIndex, int position) {
+        // Address of one record with the key at targetIndex, without allocating an Address
+        if (position >= getAddressCount(targetIndex)) {
+            throw new IndexOutOfBoundsException("Position " + position + " out of bounds for length "
+                    + postingCounts[targetIndex]);
+        }
+        return postingsSet[targetIndex][position];
+    }
+
+    public int positionAfter(int targetIndex, long packedAddress) {
+        // Position of the first address of the key greater than packedAddress
+        long[] postings = postingsSet[targetIndex];
+        int low = 0;
+        int high = getAddressCount(targetIndex);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (postings[mid] <= packedAddress) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
     public ArrayList<Address> getAddress(int targetIndex) {
-        // Get the Linked List of addresses using index
-        ArrayList<Address> targetAddress = addressesSet.get(targetIndex);
+        // Get the list of addresses using index, the Address objects are created on every call
+        int count = getAddressCount(targetIndex);
+        ArrayList<Address> targetAddress = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            targetAddress.add(Address.unpack(postingsSet[targetIndex][i]));
+        }
         return targetAddress;
     }
 
     public int setAddress(float targetKey, Address targetAddress) {
         // Set the key and address.
-        int addressSetSize = this.getAddresses().size();
-        int targetIndex = 0;
-        if (addressSetSize > 0) {
-            targetIndex = super.setKey(targetKey);
-            if (this.getKeys().size() == this.getAddresses().size()) {
-                // If the targetIndex already exist.
-                // Check the length of keys and length of Address (Should be Same if the
-                // targetIndex already Exist).
-                // Just insert.
-                this.addressesSet.get(targetIndex).add(targetAddress);
-            } else {
-                // If the targetIndex does not exist.
-                // Shift the LinkedList of addresses to the right until the correct position is
-                // found and inserted.
-                ArrayList<Address> tempLL = new ArrayList<Address>();
-                tempLL.add(targetAddress);
-                addressesSet.add(tempLL);
-                addressSetSize = this.getAddresses().size();
-                for (int ptr = addressSetSize - 2; ptr >= targetIndex; ptr--) {
-                    addressesSet.set(ptr + 1, addressesSet.get(ptr));
-                }
-                addressesSet.set(targetIndex, tempLL);
+        return addPackedAddress(targetKey, Address.pack(targetAddress.blockID, targetAddress.offset));
+    }
+
+    public int addPackedAddress(float targetKey, long packedAddress) {
+        // Add an address to the key in ascending order, inserting the key if it is not there yet
+        // Addresses usually come in ascending order, those are appended without searching
+        int targetIndex = insertEntry(targetKey);
+        long[] postings = postingsSet[targetIndex];
+        int count = postingCounts[targetIndex];
+        if (postings == null) {
+            postings = new long[1];
+        } else if (count == postings.length) {
+            postings = Arrays.copyOf(postings, count * 2);
+        }
+        postingsSet[targetIndex] = postings;
+        int position = count == 0 || postings[count - 1] < packedAddress ? count
+                : positionAfter(targetIndex, packedAddress);
+        System.arraycopy(postings, position, postings, position + 1, count - position);
+        postings[position] = packedAddress;
+        postingCounts[targetIndex] = count + 1;
+        return targetIndex;
+    }
+
+    public void addEntry(LeafNode source, int sourceIndex) {
+        // Move the key at sourceIndex of another leaf, with all its addresses, into this leaf
+        // The posting array is handed over as is unless this leaf already holds the key
+        float key = source.getKey(sourceIndex);
+        long[] postings = source.postingsSet[sourceIndex];
+        int count = source.postingCounts[sourceIndex];
+        source.deleteAddress(sourceIndex);
+
+        int targetIndex = insertEntry(key);
+        if (postingCounts[targetIndex] == 0) {
+            postingsSet[targetIndex] = postings;
+            postingCounts[targetIndex] = count;
+        } else {
+            for (int i = 0; i < count; i++) {
+                addPackedAddress(key, postings[i]);
             }
+        }
+    }
 
+    public boolean replacePackedAddress(int targetIndex, long from, long to) {
+        // Replace one address of the key, returns false if the key has no such address
+        // The new address is moved to its place in the ascending order
+        long[] postings = postingsSet[targetIndex];
+        int i = positionAfter(targetIndex, from) - 1;
+        if (i < 0 || postings[i] != from) {
+            return false;
+        }
+        int position = positionAfter(targetIndex, to);
+        if (position > i) {
+            System.arraycopy(postings, i + 1, postings, i, position - i - 1);
+            postings[position - 1] = to;
         } else {
-            // If the addresses are empty.
-            // Initialize new LinkedList of addresses
-            ArrayList<Address> tempLL = new ArrayList<Address>();
-            tempLL.add(targetAddress);
-            this.setKey(targetKey);
-            this.addressesSet.add(tempLL);
+            System.arraycopy(postings, position, postings, position + 1, i - position);
+            postings[position] = to;
         }
-        return targetIndex;
+        return true;
     }
 
     public void deleteAddress(int targetIndex) {
         // Delete the key using index.
         // Delete the addresses using index.
+        int keyCount = getKeyCount();
         deleteKey(targetIndex);
-        addressesSet.remove(targetIndex);
+        System.arraycopy(postingsSet, targetIndex + 1, postingsSet, targetIndex, keyCount - targetIndex - 1);
+        System.arraycopy(postingCounts, targetIndex + 1, postingCounts, targetIndex, keyCount - targetIndex - 1);
+        postingsSet[keyCount - 1] = null;
+        postingCounts[keyCount - 1] = 0;
     }
 
-    public ArrayList<ArrayList<Address>> getAddresses() {
-        // Getter for addressesSet.
-        return this.addressesSet;
+    public void deleteEntries(int from, int to) {
+        // Delete the keys at [from, to) along with their addresses
+        int keyCount = getKeyCount();
+        deleteKeys(from, to);
+        System.arraycopy(postingsSet, to, postingsSet, from, keyCount - to);
+        System.arraycopy(postingCounts, to, postingCounts, from, keyCount - to);
+        Arrays.fill(postingsSet, keyCount - (to - from), keyCount, null);
+        Arrays.fill(postingCounts, keyCount - (to - from), keyCount, 0);
     }
 
     public void deleteAddresses() {
@@ -78,7 +154,8 @@ public class LeafNode extends Node {
 
     public void resetAddresses() {
         // Clear out the addresses
-        this.addressesSet = new ArrayList<ArrayList<Address>>();
+        Arrays.fill(postingsSet, null);
+        Arrays.fill(postingCounts, 0);
     }
 
     public LeafNode getNextNode() {
@@ -96,4 +173,28 @@ public class LeafNode extends Node {
         deleteAllKeys();
         resetAddresses();
     }
+
+    private int insertEntry(float key) {
+        // Insert the key if it is missing, shifting the posting lists along with the keys
+        int keyCount = getKeyCount();
+        int targetIndex = setKey(key);
+        if (getKeyCount() != keyCount) {
+            if (keyCount == postingsSet.length) {
+                postingsSet = Arrays.copyOf(postingsSet, keyCount * 2 + 1);
+                postingCounts = Arrays.copyOf(postingCounts, keyCount * 2 + 1);
+            }
+            System.arraycopy(postingsSet, targetIndex, postingsSet, targetIndex + 1, keyCount - targetIndex);
+            System.arraycopy(postingCounts, targetIndex, postingCounts, targetIndex + 1, keyCount - targetIndex);
+            postingsSet[targetIndex] = null;
+            postingCounts[targetIndex] = 0;
+        }
+        return targetIndex;
+    }
+
+    private void checkIndex(int targetIndex) {
+        if (targetIndex >= getKeyCount()) {
+            throw new IndexOutOfBoundsException("Index " + targetIndex + " out of bounds for length "
+                    + getKeyCount());
+        }
+    }
 }
@@ -0,0 +1,235 @@
+package index;
+
+public class LongBPTree {
+    // B+ tree from long keys to packed addresses (see storage.Address.pack), used by the secondary indexes
+    // Keys are kept in primitive arrays from the root down to the leaves and are never boxed,
+    // int, float and date columns are mapped onto long keys of the same order by SecondaryIndex
+    // Duplicate keys share one leaf entry holding all their addresses, like the leaves of BPTree
+    // A tree can also keep a fixed number of int values next to each address (the included columns of a
+    // covering index), stored in the leaves alongside the posting lists
+    // The nodes are shared with ConcurrentBPTree (see LongNode), but used without latches
+    // Removals never merge nodes: a leaf left empty stays in the chain and is refilled by later insertions,
+    // its separators remain valid bounds
+    private static final int KEY_SIZE = 8;
+
+    private final int maxKeys;
+    private final int valueCount; // Values kept with each address
+    private LongNode root;
+    private int levelCount;
+    private int nodeCount;
+    private int distinctKeyCount;
+    private int entryCount;
+    private long splitKey; // Separator of the last split, set by insert(LongNode, ...)
+
+    public LongBPTree(int blkSize) {
+        this(blkSize, 0);
+    }
+
+    public LongBPTree(int blkSize, int valueCount) {
+        // Same node size as BPTree, with fewer keys per node since they are twice as wide
+        this.maxKeys = BPTree.maxKeysFor(blkSize, KEY_SIZE);
+        this.valueCount = valueCount;
+        this.root = new LongLeafNode(maxKeys + 1, false, valueCount);
+        this.levelCount = 1;
+        this.nodeCount = 1;
+    }
+
+    public interface AddressConsumer {
+        void accept(long key, long packedAddress) throws Exception;
+    }
+
+    public interface EntryConsumer {
+        // The values of the address are values[offset, offset + getValueCount()), only valid during the call
+        void accept(long key, long packedAddress, int[] values, int offset) throws Exception;
+    }
+
+    public void insert(long key, long packedAddress) {
+        insert(key, packedAddress, null);
+    }
+
+    public void insert(long key, long packedAddress, int[] values) {
+        // values holds getValueCount() values to keep with the address
+        LongNode sibling = insert(root, key, packedAddress, values);
+        if (sibling != null) {
+            LongInternalNode newRoot = new LongInternalNode(maxKeys + 1, false);
+            newRoot.children[0] = root;
+            newRoot.insertChild(0, splitKey, sibling);
+            root = newRoot;
+            levelCount++;
+            nodeCount++;
+        }
+    }
+
+    public boolean remove(long key, long packedAddress) {
+        // Remove one address of the key, returns false if the key has no such address
+        int result = findLeaf(key).remove(key, packedAddress);
+        if (result < 0) {
+            return false;
+        }
+        entryCount--;
+        if (result == 0) {
+            distinctKeyCount--;
+        }
+        return true;
+    }
+
+    public int forEachAddress(long lowerBound, long upperBound, AddressConsumer consumer) throws Exception {
+        // Hand every address of the keys in [lowerBound, upperBound] to the consumer in key order
+        return forEachEntry(lowerBound, upperBound, (key, packedAddress, values, offset) ->
+                consumer.accept(key, packedAddress));
+    }
+
+    public int forEachEntry(long lowerBound, long upperBound, EntryConsumer consumer) throws Exception {
+        // Same with the values kept with every address
+        int count = 0;
+        LongLeafNode leaf = findLeaf(lowerBound);
+        int i = leaf.lowerBound(lowerBound);
+        while (leaf != null) {
+            for (; i < leaf.keyCount; i++) {
+                long key = leaf.keys[i];
+                if (key > upperBound) {
+                    return count;
+                }
+                long[] postings = leaf.postings[i];
+                int[] values = valueCount > 0 ? leaf.values[i] : null;
+                for (int j = 0; j < leaf.postingCounts[i]; j++) {
+                    consumer.accept(key, postings[j], values, j * valueCount);
+                }
+                count += leaf.postingCounts[i];
+            }
+            leaf = leaf.next;
+            i = 0;
+        }
+        return count;
+    }
+
+    public int countAddresses(long lowerBound, long upperBound) throws Exception {
+        return forEachAddress(lowerBound, upperBound, (key, packedAddress) -> {
+        });
+    }
+
+    public Cursor cursor(long lowerBound, long upperBound) {
+        return new Cursor(lowerBound, upperBound);
+    }
+
+    public class Cursor {
+        // Pull-based counterpart of forEachEntry over the keys in [lowerBound, upperBound]
+        // The tree must not be modified while the cursor is in use
+        private final long upperBound;
+        private LongLeafNode leaf;
+        private int keyIndex;
+        private int position;
+        private int[] values; // Values of the key of the last entry returned
+        private int valueOffset;
+        private long key;
+
+        private Cursor(long lowerBound, long upperBound) {
+            this.upperBound = upperBound;
+            this.leaf = findLeaf(lowerBound);
+            this.keyIndex = leaf.lowerBound(lowerBound);
+        }
+
+        public boolean hasNext() {
+            while (leaf != null) {
+                if (keyIndex == leaf.keyCount) {
+                    leaf = leaf.next;
+                    keyIndex = 0;
+                    position = 0;
+                } else if (leaf.keys[keyIndex] > upperBound) {
+                    leaf = null;
+                } else if (position < leaf.postingCounts[keyIndex]) {
+                    return true;
+                } else {
+                    keyIndex++;
+                    position = 0;
+                }
+            }
+            return false;
+        }
+
+        public long next() {
+            // Packed address of the next entry, its key and values are then available until next is called again
+            if (!hasNext()) {
+                throw new IllegalStateException("No more addresses");
+            }
+            key = leaf.keys[keyIndex];
+            values = valueCount > 0 ? leaf.values[keyIndex] : null;
+            valueOffset = position * valueCount;
+            return leaf.postings[keyIndex][position++];
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public int getValue(int i) {
+            // The i-th value kept with the address returned by the last call to next
+            return values[valueOffset + i];
+        }
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getDistinctKeyCount() {
+        return distinctKeyCount;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    private LongLeafNode findLeaf(long key) {
+        LongNode node = root;
+        while (node instanceof LongInternalNode) {
+            node = ((LongInternalNode) node).children[node.upperBound(key)];
+        }
+        return (LongLeafNode) node;
+    }
+
+    private LongNode insert(LongNode node, long key, long packedAddress, int[] values) {
+        // Insert below node, returns the new right sibling if node split, with its separator left in splitKey
+        if (node instanceof LongLeafNode) {
+            LongLeafNode leaf = (LongLeafNode) node;
+            if (leaf.add(key, packedAddress, values)) {
+                distinctKeyCount++;
+            }
+            entryCount++;
+            if (leaf.keyCount <= maxKeys) {
+                return null;
+            }
+            LongLeafNode sibling = leaf.split();
+            splitKey = sibling.keys[0];
+            nodeCount++;
+            return sibling;
+        }
+
+        LongInternalNode inner = (LongInternalNode) node;
+        int i = inner.upperBound(key);
+        LongNode child = insert(inner.children[i], key, packedAddress, values);
+        if (child == null) {
+            return null;
+        }
+        inner.insertChild(i, splitKey, child);
+        if (inner.keyCount <= maxKeys) {
+            return null;
+        }
+        int mid = inner.keyCount / 2;
+        splitKey = inner.keys[mid];
+        nodeCount++;
+        return inner.split(mid);
+    }
+}
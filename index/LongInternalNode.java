@@ -0,0 +1,75 @@
+package index;
+
+import java.util.Arrays;
+
+class LongInternalNode extends LongNode {
+    // children[i] holds the keys below keys[i], children[keyCount] the keys from keys[keyCount - 1] on
+    final LongNode[] children;
+
+    LongInternalNode(int capacity, boolean latched) {
+        super(capacity, latched);
+        this.children = new LongNode[capacity + 1];
+    }
+
+    void insertChild(int index, long key, LongNode child) {
+        // Insert the key at index and the child right after it
+        System.arraycopy(keys, index, keys, index + 1, keyCount - index);
+        System.arraycopy(children, index + 1, children, index + 2, keyCount - index);
+        keys[index] = key;
+        children[index + 1] = child;
+        keyCount++;
+    }
+
+    void removeChild(int index) {
+        // Remove the key at index and the child right after it
+        System.arraycopy(keys, index + 1, keys, index, keyCount - index - 1);
+        System.arraycopy(children, index + 2, children, index + 1, keyCount - index - 1);
+        keyCount--;
+        children[keyCount + 1] = null;
+    }
+
+    LongInternalNode split(int mid) {
+        // Move the keys after mid and their children into a new node, keys[mid] moves up to the parent
+        LongInternalNode sibling = new LongInternalNode(keys.length, latch != null);
+        int moved = keyCount - mid - 1;
+        System.arraycopy(keys, mid + 1, sibling.keys, 0, moved);
+        System.arraycopy(children, mid + 1, sibling.children, 0, moved + 1);
+        Arrays.fill(children, mid + 1, keyCount + 1, null);
+        sibling.keyCount = moved;
+        keyCount = mid;
+        return sibling;
+    }
+
+    long takeFirst(long separator, LongInternalNode right) {
+        // Rotate the first child of the right sibling through the parent, returns the new separator
+        keys[keyCount] = separator;
+        children[keyCount + 1] = right.children[0];
+        keyCount++;
+        long newSeparator = right.keys[0];
+        System.arraycopy(right.keys, 1, right.keys, 0, right.keyCount - 1);
+        System.arraycopy(right.children, 1, right.children, 0, right.keyCount);
+        right.children[right.keyCount] = null;
+        right.keyCount--;
+        return newSeparator;
+    }
+
+    long takeLast(LongInternalNode left, long separator) {
+        // Rotate the last child of the left sibling through the parent, returns the new separator
+        System.arraycopy(keys, 0, keys, 1, keyCount);
+        System.arraycopy(children, 0, children, 1, keyCount + 1);
+        keys[0] = separator;
+        children[0] = left.children[left.keyCount];
+        keyCount++;
+        left.children[left.keyCount] = null;
+        left.keyCount--;
+        return left.keys[left.keyCount];
+    }
+
+    void merge(long separator, LongInternalNode right) {
+        // Append the separator and the keys and children of the right sibling
+        keys[keyCount] = separator;
+        System.arraycopy(right.keys, 0, keys, keyCount + 1, right.keyCount);
+        System.arraycopy(right.children, 0, children, keyCount + 1, right.keyCount + 1);
+        keyCount += right.keyCount + 1;
+    }
+}
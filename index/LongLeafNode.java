@@ -0,0 +1,138 @@
+package index;
+
+import java.util.Arrays;
+
+class LongLeafNode extends LongNode {
+    // Duplicate keys share one entry holding all their addresses, in postings[i][0, postingCounts[i])
+    // values[i] holds valueCount values per address of postings[i], values is null without values
+    final long[][] postings;
+    final int[] postingCounts;
+    final int valueCount;
+    final int[][] values;
+    LongLeafNode next;
+
+    LongLeafNode(int capacity, boolean latched, int valueCount) {
+        super(capacity, latched);
+        this.postings = new long[capacity][];
+        this.postingCounts = new int[capacity];
+        this.valueCount = valueCount;
+        this.values = valueCount > 0 ? new int[capacity][] : null;
+    }
+
+    boolean add(long key, long packedAddress, int[] newValues) {
+        // Returns true if the key was not in the leaf yet
+        int i = indexOf(key);
+        boolean newKey = i < 0;
+        if (newKey) {
+            i = -(i + 1);
+            System.arraycopy(keys, i, keys, i + 1, keyCount - i);
+            System.arraycopy(postings, i, postings, i + 1, keyCount - i);
+            System.arraycopy(postingCounts, i, postingCounts, i + 1, keyCount - i);
+            keys[i] = key;
+            postings[i] = new long[1];
+            postingCounts[i] = 0;
+            if (values != null) {
+                System.arraycopy(values, i, values, i + 1, keyCount - i);
+                values[i] = new int[valueCount];
+            }
+            keyCount++;
+        } else if (postingCounts[i] == postings[i].length) {
+            postings[i] = Arrays.copyOf(postings[i], postingCounts[i] * 2);
+            if (values != null) {
+                values[i] = Arrays.copyOf(values[i], postingCounts[i] * 2 * valueCount);
+            }
+        }
+        if (values != null) {
+            System.arraycopy(newValues, 0, values[i], postingCounts[i] * valueCount, valueCount);
+        }
+        postings[i][postingCounts[i]++] = packedAddress;
+        return newKey;
+    }
+
+    int remove(long key, long packedAddress) {
+        // Returns the number of addresses left for the key, or -1 if the address was not found
+        int i = indexOf(key);
+        if (i < 0) {
+            return -1;
+        }
+        long[] addresses = postings[i];
+        for (int j = 0; j < postingCounts[i]; j++) {
+            if (addresses[j] == packedAddress) {
+                System.arraycopy(addresses, j + 1, addresses, j, postingCounts[i] - j - 1);
+                if (values != null) {
+                    System.arraycopy(values[i], (j + 1) * valueCount, values[i], j * valueCount,
+                            (postingCounts[i] - j - 1) * valueCount);
+                }
+                int left = --postingCounts[i];
+                if (left == 0) {
+                    removeEntry(i);
+                }
+                return left;
+            }
+        }
+        return -1;
+    }
+
+    LongLeafNode split() {
+        // Move the upper half of the entries into a new leaf linked after this one
+        LongLeafNode sibling = new LongLeafNode(keys.length, latch != null, valueCount);
+        int keep = keyCount / 2;
+        moveEntries(keep, sibling, 0, keyCount - keep);
+        sibling.keyCount = keyCount - keep;
+        keyCount = keep;
+
+        sibling.next = next;
+        next = sibling;
+        return sibling;
+    }
+
+    void takeFirst(LongLeafNode right) {
+        // Move the first entry of the right sibling to the end of this leaf
+        right.moveEntries(0, this, keyCount, 1);
+        keyCount++;
+        right.removeEntry(0);
+    }
+
+    void takeLast(LongLeafNode left) {
+        // Move the last entry of the left sibling to the front of this leaf
+        moveEntries(0, this, 1, keyCount);
+        left.moveEntries(left.keyCount - 1, this, 0, 1);
+        keyCount++;
+        left.keyCount--;
+    }
+
+    void merge(LongLeafNode right) {
+        // Append the entries of the right sibling, which leaves the chain
+        right.moveEntries(0, this, keyCount, right.keyCount);
+        keyCount += right.keyCount;
+        next = right.next;
+    }
+
+    private void removeEntry(int i) {
+        moveEntries(i + 1, this, i, keyCount - i - 1);
+        keyCount--;
+        postings[keyCount] = null;
+        postingCounts[keyCount] = 0;
+        if (values != null) {
+            values[keyCount] = null;
+        }
+    }
+
+    private void moveEntries(int from, LongLeafNode target, int to, int count) {
+        // Copy count entries from position from on to position to of the target, which may be this leaf
+        // The entries left behind in another leaf are cleared, the key counts are up to the caller
+        System.arraycopy(keys, from, target.keys, to, count);
+        System.arraycopy(postings, from, target.postings, to, count);
+        System.arraycopy(postingCounts, from, target.postingCounts, to, count);
+        if (values != null) {
+            System.arraycopy(values, from, target.values, to, count);
+        }
+        if (target != this) {
+            Arrays.fill(postings, from, from + count, null);
+            Arrays.fill(postingCounts, from, from + count, 0);
+            if (values != null) {
+                Arrays.fill(values, from, from + count, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package index;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+class LongNode {
+    // Node of LongBPTree and ConcurrentBPTree, with sorted keys in keys[0, keyCount)
+    // The arrays hold one key more than a full node, so a node can overflow by one key before it is split
+    // ConcurrentBPTree keeps its float keys as BPTree.sortableBits and latches every node, latch is null otherwise
+    final ReentrantReadWriteLock latch;
+    final long[] keys;
+    int keyCount;
+
+    LongNode(int capacity, boolean latched) {
+        this.latch = latched ? new ReentrantReadWriteLock() : null;
+        this.keys = new long[capacity];
+    }
+
+    int indexOf(long key) {
+        // Index of the key if present, otherwise -(insertion point) - 1
+        int low = 0;
+        int high = keyCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else if (keys[mid] > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    int lowerBound(long key) {
+        // Index of the first key >= key
+        int i = indexOf(key);
+        return i >= 0 ? i : -(i + 1);
+    }
+
+    int upperBound(long key) {
+        // Index of the first key > key, which is also the child to descend into
+        int i = indexOf(key);
+        return i >= 0 ? i + 1 : -(i + 1);
+    }
+}
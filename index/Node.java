@@ -1,16 +1,18 @@
 package index;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 
 public class Node {
     private InternalNode internalNode;
-    private ArrayList<Float> keysSet;
+    // Sorted keys in keysSet[0, keyCount), the array is sized for a full node when it is created
+    private float[] keysSet;
+    private int keyCount;
     private boolean isRoot;
     private boolean isLeaf;
 
-    public Node() {
-        this.keysSet = new ArrayList<>();
+    public Node(int capacity) {
+        this.keysSet = new float[capacity];
+        this.keyCount = 0;
         this.isRoot = true;
         this.isLeaf = true;
     }
@@ -27,55 +29,109 @@ public class Node {
 
     public float getKey(int targetIndex) {
         // retrieve the key based on index
-        return keysSet.get(targetIndex);
+        if (targetIndex >= keyCount) {
+            throw new IndexOutOfBoundsException("Index " + targetIndex + " out of bounds for length " + keyCount);
+        }
+        return keysSet[targetIndex];
+    }
+
+    public int getKeyCount() {
+        return this.keyCount;
     }
 
     public int setKey(float newKey) {
-        int keysSize = keysSet.size();
-        int targetIndex = 0;
-        if (keysSize == 0) {
-            // If this node has no key, just insert this new key
-            keysSet.add(newKey);
-        } else {
-            if (keysSet.contains(newKey)) {
-                // If this key is a duplicate, just find the targetIndex
-                targetIndex = binarySearch(newKey);
-            } else {
-                // If this key is not a duplicate, just insert and find the targetIndex
-                keysSet.add(newKey);
-                Collections.sort(keysSet);
-                targetIndex = binarySearch(newKey);
-            }
+        // Insert the key at its sorted position unless it is already there, and return its index
+        int targetIndex = binarySearch(newKey);
+        if (targetIndex >= 0) {
+            return targetIndex;
+        }
+
+        targetIndex = -(targetIndex + 1);
+        if (keyCount == keysSet.length) {
+            // Only happens if a node is filled past the capacity it was created with
+            keysSet = Arrays.copyOf(keysSet, keysSet.length * 2 + 1);
         }
+        System.arraycopy(keysSet, targetIndex, keysSet, targetIndex + 1, keyCount - targetIndex);
+        keysSet[targetIndex] = newKey;
+        keyCount++;
         return targetIndex;
     }
 
-    public ArrayList<Float> getKeys() {
-        // Return all the keys
-        return this.keysSet;
+    //Visibility: Package
+    void insertKeyAt(int targetIndex, float newKey) {
+        // Insert a key at a given position, used when keys move between nodes in an order already known
+        if (keyCount == keysSet.length) {
+            keysSet = Arrays.copyOf(keysSet, keysSet.length * 2 + 1);
+        }
+        System.arraycopy(keysSet, targetIndex, keysSet, targetIndex + 1, keyCount - targetIndex);
+        keysSet[targetIndex] = newKey;
+        keyCount++;
+    }
+
+    //Visibility: Package
+    void setKeyAt(int targetIndex, float newKey) {
+        // Replace a separator after keys moved between two children
+        keysSet[targetIndex] = newKey;
+    }
+
+    public boolean containsKey(float key) {
+        return binarySearch(key) >= 0;
+    }
+
+    public String keysToString() {
+        // Keys formatted as a list, e.g. [0.5, 0.6]
+        return Arrays.toString(Arrays.copyOf(keysSet, keyCount));
     }
 
     public int binarySearch(float newKey) {
-        // use binary search to find the newkey
-        int keysSize = keysSet.size();
-        int highPtr = keysSize - 1;
+        // Index of the key if it is present, otherwise -(insertion point) - 1
+        int highPtr = keyCount - 1;
         int lowPtr = 0;
-        int targetIndex = -1;
 
         while (lowPtr <= highPtr) {
             int midPtr = findMid(lowPtr, highPtr);
-            float valMid = keysSet.get(midPtr);
+            float valMid = keysSet[midPtr];
 
             if (valMid > newKey) {
                 highPtr = midPtr - 1;
             } else if (valMid < newKey) {
                 lowPtr = midPtr + 1;
             } else {
-                targetIndex = midPtr;
-                lowPtr = midPtr + 1;
+                return midPtr;
             }
         }
-        return targetIndex;
+        return -(lowPtr + 1);
+    }
+
+    public int lowerBound(float key) {
+        // Index of the first key >= key, keyCount if there is none
+        // The halving loop has a fixed trip count and no unpredictable branch, only a conditional move
+        int base = 0;
+        int length = keyCount;
+        if (length == 0) {
+            return 0;
+        }
+        while (length > 1) {
+            int half = length >>> 1;
+            base = keysSet[base + half - 1] < key ? base + half : base;
+            length -= half;
+        }
+        return keysSet[base] < key ? base + 1 : base;
+    }
+
+    public int upperBound(float key) {
+        // Index of the first key > key, keyCount if there is none
+        int base = 0;
+        int length = keyCount;
+        if (length == 0) {
+            return 0;
+        }
+        while (length > 1) {
+            int half = length >>> 1;
+            base = keysSet[base + half - 1] <= key ? base + half : base;
+            length -= half;
+        }
+        return keysSet[base] <= key ? base + 1 : base;
     }
 
     public int findMid(int low, int high) {
@@ -105,7 +161,18 @@ public class Node {
 
     public void deleteKey(int targetIndex) {
         // Delete a key based on index
-        this.keysSet.remove(targetIndex);
+        if (targetIndex >= keyCount) {
+            throw new IndexOutOfBoundsException("Index " + targetIndex + " out of bounds for length " + keyCount);
+        }
+        System.arraycopy(keysSet, targetIndex + 1, keysSet, targetIndex, keyCount - targetIndex - 1);
+        keyCount--;
+    }
+
+    //Visibility: Package
+    void deleteKeys(int from, int to) {
+        // Delete the keys at [from, to)
+        System.arraycopy(keysSet, to, keysSet, from, keyCount - to);
+        keyCount -= to - from;
     }
 
     public void deleteAllKeys() {
@@ -115,7 +182,7 @@ public class Node {
 
     public void resetKeys() {
         // Delete all the keys
-        this.keysSet = new ArrayList<>();
+        this.keyCount = 0;
     }
 
     public float retrieveSmallestKey() {
@@ -0,0 +1,167 @@
+package index;
+
+import storage.Address;
+import storage.Block;
+import storage.Column;
+import storage.Disk;
+
+public class SecondaryIndex implements Disk.RecordListener {
+    // Index on any column of the records, kept up to date by the disk it is attached to (Disk.addRecordListener)
+    // Every column is mapped onto a long key of the same order, so a single primitive tree serves all of them:
+    // int columns as they are, float columns by their bits (see floatKey) and the date as the number yyyymmdd
+    // A composite index on two columns packs both keys into one long (see compositeKey), so the entries of
+    // a value of the first column are contiguous and sorted by the second one
+    // A covering index also copies the included columns of every record into its leaves, so queries that only
+    // read those columns never access the data blocks (see forEachEntry)
+    // Nothing is saved or logged, the index is rebuilt from the blocks whenever the database is opened
+    private final Column column;
+    private final Column secondColumn; // null for an index on a single column
+    private final Column[] includedColumns;
+    private final int[] includedValues; // Values of the record being inserted, reused for every insertion
+    private final LongBPTree tree;
+
+    public SecondaryIndex(Column column, int blkSize) {
+        this(column, null, blkSize);
+    }
+
+    public SecondaryIndex(Column column, Column secondColumn, int blkSize, Column... includedColumns) {
+        this.column = column;
+        this.secondColumn = secondColumn;
+        this.includedColumns = includedColumns.clone();
+        this.includedValues = new int[includedColumns.length];
+        this.tree = new LongBPTree(blkSize, includedColumns.length);
+    }
+
+    public static long intKey(int value) {
+        return value;
+    }
+
+    public static long floatKey(float value) {
+        // Same order-preserving bits as the keys of BPTree
+        return BPTree.sortableBits(value);
+    }
+
+    public static long dateKey(int year, int month, int day) {
+        // Same number as Block.getDate
+        return year * 10000L + month * 100 + day;
+    }
+
+    public static float floatValue(int value) {
+        // Value of an included float column, which is kept as its bits (see Block.getValue)
+        return Float.intBitsToFloat(value);
+    }
+
+    public static long compositeKey(long firstKey, long secondKey) {
+        // Both keys fit in an int, as every key above does: the first one goes to the high half and the
+        // second one to the low half with its sign bit flipped, so that it compares as unsigned there
+        return firstKey << 32 | ((secondKey ^ 0x80000000L) & 0xFFFFFFFFL);
+    }
+
+    public long keyOf(Block block, int offset) {
+        // Key of the record at offset of the block
+        if (secondColumn == null) {
+            return columnKey(block, offset, column);
+        }
+        return compositeKey(columnKey(block, offset, column), columnKey(block, offset, secondColumn));
+    }
+
+    private static long columnKey(Block block, int offset, Column column) {
+        if (column.isFloat()) {
+            return floatKey(block.getFloat(offset, column));
+        }
+        return intKey(block.getValue(offset, column));
+    }
+
+    @Override
+    public void recordInserted(Block block, Address address) {
+        for (int i = 0; i < includedColumns.length; i++) {
+            includedValues[i] = block.getValue(address.offset, includedColumns[i]);
+        }
+        tree.insert(keyOf(block, address.offset), Address.pack(address.blockID, address.offset), includedValues);
+    }
+
+    @Override
+    public void recordDeleted(Block block, Address address) throws Exception {
+        if (!tree.remove(keyOf(block, address.offset), Address.pack(address.blockID, address.offset))) {
+            throw new Exception("Record missing from the index on " + getName());
+        }
+    }
+
+    public Column getColumn() {
+        return column;
+    }
+
+    public Column getSecondColumn() {
+        return secondColumn;
+    }
+
+    public boolean includes(Column includedColumn) {
+        for (Column column : includedColumns) {
+            if (column == includedColumn) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getName() {
+        String name = secondColumn == null ? column.toString() : column + ", " + secondColumn;
+        for (int i = 0; i < includedColumns.length; i++) {
+            name += (i == 0 ? " including " : ", ") + includedColumns[i];
+        }
+        return name;
+    }
+
+    public int getIncludedPosition(Column includedColumn) {
+        // Position of the values of an included column in the values handed to an EntryConsumer
+        for (int i = 0; i < includedColumns.length; i++) {
+            if (includedColumns[i] == includedColumn) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(includedColumn + " is not included in the index on " + getName());
+    }
+
+    public int forEachAddress(long lowerKey, long upperKey, LongBPTree.AddressConsumer consumer) throws Exception {
+        // Keys as returned by intKey, floatKey or dateKey for this column, or compositeKey of both columns
+        return tree.forEachAddress(lowerKey, upperKey, consumer);
+    }
+
+    public int forEachEntry(long lowerKey, long upperKey, LongBPTree.EntryConsumer consumer) throws Exception {
+        // Same with the included columns of every record, see getIncludedPosition and floatValue
+        return tree.forEachEntry(lowerKey, upperKey, consumer);
+    }
+
+    public LongBPTree.Cursor cursor(long lowerKey, long upperKey) {
+        // Pull-based scan of the same entries as forEachEntry
+        return tree.cursor(lowerKey, upperKey);
+    }
+
+    public int countAddresses(long lowerKey, long upperKey) throws Exception {
+        return tree.countAddresses(lowerKey, upperKey);
+    }
+
+    public int forEachAddress(long firstKey, long lowerSecondKey, long upperSecondKey,
+            LongBPTree.AddressConsumer consumer) throws Exception {
+        // Prefix range scan of a composite index: the records with firstKey in the first column and a key in
+        // [lowerSecondKey, upperSecondKey] in the second one, found in a single walk along the leaves
+        return tree.forEachAddress(compositeKey(firstKey, lowerSecondKey), compositeKey(firstKey, upperSecondKey),
+                consumer);
+    }
+
+    public int forEachAddressWithPrefix(long firstKey, LongBPTree.AddressConsumer consumer) throws Exception {
+        // Every record with firstKey in the first column of a composite index
+        return forEachAddress(firstKey, Integer.MIN_VALUE, Integer.MAX_VALUE, consumer);
+    }
+
+    public void printInfo() {
+        System.out.println();
+        System.out.println("Secondary index on " + getName());
+        System.out.println("------------------------------------------------------------------");
+        System.out.println("The parameter n of the B+ tree: " + tree.getMaxKeys());
+        System.out.println("The number of nodes of the B+ tree: " + tree.getNodeCount());
+        System.out.println("The number of levels of the B+ tree: " + tree.getLevelCount());
+        System.out.println("The number of distinct keys: " + tree.getDistinctKeyCount());
+        System.out.println("The number of records indexed: " + tree.getEntryCount());
+    }
+}
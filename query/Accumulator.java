@@ -0,0 +1,68 @@
+package query;
+
+public class Accumulator {
+    // Running COUNT, SUM, MIN and MAX of the values of one group, in primitives only
+    // The sum is compensated (Neumaier's variant of Kahan summation): the low-order bits lost by every addition
+    // are collected separately, so the error stays at a few ulps however many values are added
+    private long count;
+    private double sum;
+    private double compensation;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    //Visibility: Package
+    void add(double value) {
+        count++;
+        double total = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - total) + value;
+        } else {
+            compensation += (value - total) + sum;
+        }
+        sum = total;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    //Visibility: Package
+    void addRow() {
+        // A row counted by COUNT without any value
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum + compensation;
+    }
+
+    public double getAverage() {
+        // NaN over no value, as MIN and MAX
+        return count == 0 ? Double.NaN : getSum() / count;
+    }
+
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    public double get(Aggregate.Function function) {
+        switch (function) {
+            case COUNT:
+                return count;
+            case SUM:
+                return getSum();
+            case AVG:
+                return getAverage();
+            case MIN:
+                return getMin();
+            default:
+                return getMax();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package query;
+
+import storage.Column;
+
+public class Aggregate {
+    // Root of a pipeline folding all the rows of its input into one value, or one value per group
+    // If the input can push its rows (see RowSource) the values are folded inside the loop of the scan at the
+    // bottom, otherwise batch by batch; either way only one accumulator per group is kept, nothing is collected
+    // The GROUP BY column, and the aggregated one, must be read by the scan below
+    public enum Function {
+        COUNT, SUM, AVG, MIN, MAX
+    }
+
+    private final Operator input;
+    private final Function function;
+    private final Column column; // Unused for COUNT
+    private final Column groupBy; // null without grouping
+    private long rowCount;
+
+    public Aggregate(Operator input, Function function, Column column) {
+        this(input, function, column, null);
+    }
+
+    public Aggregate(Operator input, Function function, Column column, Column groupBy) {
+        this.input = input;
+        this.function = function;
+        this.column = column;
+        this.groupBy = groupBy;
+    }
+
+    public double execute() throws Exception {
+        // Run the pipeline without grouping, the result is NaN for AVG, MIN and MAX over no row
+        if (groupBy != null) {
+            throw new IllegalStateException("Grouped by " + groupBy + ", use executeGroups");
+        }
+        Accumulator accumulator = executeGroups().get(0);
+        return (accumulator == null ? new Accumulator() : accumulator).get(function);
+    }
+
+    public GroupTable executeGroups() throws Exception {
+        // Run the pipeline, the result of a group is read with Accumulator.get(function)
+        // Without grouping every row goes to the group with key 0
+        GroupTable groups = new GroupTable();
+        boolean counting = function == Function.COUNT || column == null;
+        boolean isFloat = !counting && column.isFloat();
+        long[] rows = { 0 };
+
+        RowSource.Sink sink = (values, row) -> {
+            int group = groupBy == null ? 0 : RowSource.valueVector(values, groupBy)[row];
+            Accumulator accumulator = groups.getOrCreate(group);
+            if (counting) {
+                accumulator.addRow();
+            } else {
+                int value = RowSource.valueVector(values, column)[row];
+                accumulator.add(isFloat ? Float.intBitsToFloat(value) : value);
+            }
+            rows[0]++;
+        };
+        if (input instanceof RowSource) {
+            ((RowSource) input).push(sink);
+        } else {
+            RowSource.pushBatches(input, sink);
+        }
+        rowCount = rows[0];
+        return groups;
+    }
+
+    public long getRowCount() {
+        // Rows folded by the last execute
+        return rowCount;
+    }
+}
@@ -0,0 +1,119 @@
+package query;
+
+import storage.Address;
+import storage.Column;
+
+public class Batch {
+    // Up to a fixed number of records handed from one operator to the next, stored column by column
+    // Every field is kept as an int, encoded as by Block.getValue: floats as their bits and the date as yyyymmdd
+    // Only the rows listed in the selection vector belong to the batch, so filters drop rows without moving values
+    // Operators reuse their batch, a batch is only valid until the next call to next() of the operator returning it
+    private final long[] addresses; // Packed with Address.pack
+    private final int[][] values; // Indexed by Column.ordinal(), null for the columns that are not read
+    private final int[] selection;
+    private Column[] columns; // Columns that can be read through getInt/getFloat
+    private int rowCount; // Rows filled by the scan
+    private int size; // Rows selected
+
+    public Batch(int capacity, Column[] columns) {
+        this.addresses = new long[capacity];
+        this.values = new int[Column.values().length][];
+        for (Column column : columns) {
+            values[column.ordinal()] = new int[capacity];
+        }
+        this.selection = new int[capacity];
+        this.columns = columns.clone();
+    }
+
+    public int size() {
+        // Number of rows in the batch, the rows are then read with positions 0 to size() - 1
+        return size;
+    }
+
+    public Column[] getColumns() {
+        return columns.clone();
+    }
+
+    public long getAddress(int position) {
+        return addresses[selection[position]];
+    }
+
+    public Address getRecordAddress(int position) {
+        return Address.unpack(getAddress(position));
+    }
+
+    public int getInt(int position, Column column) {
+        // Value of an int column, or the date as yyyymmdd, or HOME_TEAM_WINS as 0 or 1
+        checkVisible(column);
+        return values[column.ordinal()][selection[position]];
+    }
+
+    public float getFloat(int position, Column column) {
+        checkVisible(column);
+        return Float.intBitsToFloat(values[column.ordinal()][selection[position]]);
+    }
+
+    //Visibility: Package
+    int getCapacity() {
+        return addresses.length;
+    }
+
+    //Visibility: Package
+    long[] getAddressVector() {
+        return addresses;
+    }
+
+    //Visibility: Package
+    int[] getValueVector(Column column) {
+        // Values of every row filled, including the rows not selected, whatever Project left visible
+        int[] columnValues = values[column.ordinal()];
+        if (columnValues == null) {
+            throw new IllegalStateException(column + " is not read by the scan");
+        }
+        return columnValues;
+    }
+
+    //Visibility: Package
+    int[][] getValueVectors() {
+        return values;
+    }
+
+    //Visibility: Package
+    int[] getSelectionVector() {
+        // Rows of the batch in selection[0, size())
+        return selection;
+    }
+
+    //Visibility: Package
+    void setRowCount(int rowCount) {
+        // Called by a scan once it filled rowCount rows, they are all selected
+        this.rowCount = rowCount;
+        for (int i = 0; i < rowCount; i++) {
+            selection[i] = i;
+        }
+        this.size = rowCount;
+    }
+
+    //Visibility: Package
+    void setSize(int size) {
+        // Keep the first size entries of the selection vector
+        this.size = size;
+    }
+
+    //Visibility: Package
+    void setColumns(Column[] columns) {
+        for (Column column : columns) {
+            getValueVector(column);
+        }
+        this.columns = columns.clone();
+    }
+
+    private void checkVisible(Column column) {
+        for (Column visible : columns) {
+            if (visible == column) {
+                return;
+            }
+        }
+        throw new IllegalStateException(column + " is not part of the batch");
+    }
+}
@@ -0,0 +1,108 @@
+package query;
+
+import storage.Column;
+
+public class Filter implements Operator, RowSource {
+    // Keep the rows whose column lies in [lowerBound, upperBound] by shrinking the selection vector of each batch
+    // Float columns are compared as floats and the others as ints, the date as yyyymmdd
+    // The column must be read by the scan below, batches left without any row are skipped
+    private final Operator child;
+    private final Column column;
+    private final float lowerFloat;
+    private final float upperFloat;
+    private final long lowerInt;
+    private final long upperInt;
+
+    public Filter(Operator child, Column column, float lowerBound, float upperBound) {
+        if (!column.isFloat()) {
+            throw new IllegalArgumentException(column + " is not a float column");
+        }
+        this.child = child;
+        this.column = column;
+        this.lowerFloat = lowerBound;
+        this.upperFloat = upperBound;
+        this.lowerInt = 0;
+        this.upperInt = 0;
+    }
+
+    public Filter(Operator child, Column column, long lowerBound, long upperBound) {
+        if (column.isFloat()) {
+            throw new IllegalArgumentException(column + " is a float column");
+        }
+        this.child = child;
+        this.column = column;
+        this.lowerFloat = 0;
+        this.upperFloat = 0;
+        this.lowerInt = lowerBound;
+        this.upperInt = upperBound;
+    }
+
+    @Override
+    public void open() throws Exception {
+        child.open();
+    }
+
+    @Override
+    public Batch next() throws Exception {
+        Batch batch;
+        while ((batch = child.next()) != null) {
+            int[] selection = batch.getSelectionVector();
+            int[] values = batch.getValueVector(column);
+            int size = batch.size();
+            int selected = 0;
+            if (column.isFloat()) {
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    float value = Float.intBitsToFloat(values[row]);
+                    if (value >= lowerFloat && value <= upperFloat) {
+                        selection[selected++] = row;
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    int value = values[row];
+                    if (value >= lowerInt && value <= upperInt) {
+                        selection[selected++] = row;
+                    }
+                }
+            }
+            if (selected > 0) {
+                batch.setSize(selected);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws Exception {
+        child.close();
+    }
+
+    @Override
+    public void push(Sink sink) throws Exception {
+        // Test every row pushed by the child, in the loop of the scan if the child can push
+        Sink filtered;
+        if (column.isFloat()) {
+            filtered = (values, row) -> {
+                float value = Float.intBitsToFloat(RowSource.valueVector(values, column)[row]);
+                if (value >= lowerFloat && value <= upperFloat) {
+                    sink.accept(values, row);
+                }
+            };
+        } else {
+            filtered = (values, row) -> {
+                int value = RowSource.valueVector(values, column)[row];
+                if (value >= lowerInt && value <= upperInt) {
+                    sink.accept(values, row);
+                }
+            };
+        }
+        if (child instanceof RowSource) {
+            ((RowSource) child).push(filtered);
+        } else {
+            RowSource.pushBatches(child, filtered);
+        }
+    }
+}
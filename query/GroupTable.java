@@ -0,0 +1,89 @@
+package query;
+
+import java.util.Arrays;
+
+public class GroupTable {
+    // Accumulators by group key, the raw int value of the GROUP BY column (see Block.getValue)
+    // Open addressing with linear probing over an int array, so finding the group of a row allocates nothing
+    private int[] keys;
+    private Accumulator[] accumulators; // null for an empty slot
+    private int size;
+
+    //Visibility: Package
+    GroupTable() {
+        this.keys = new int[16];
+        this.accumulators = new Accumulator[16];
+    }
+
+    //Visibility: Package
+    Accumulator getOrCreate(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (accumulators[slot] != null) {
+            if (keys[slot] == key) {
+                return accumulators[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (2 * (size + 1) > keys.length) {
+            grow();
+            return getOrCreate(key);
+        }
+        keys[slot] = key;
+        accumulators[slot] = new Accumulator();
+        size++;
+        return accumulators[slot];
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Accumulator[] oldAccumulators = accumulators;
+        keys = new int[oldKeys.length * 2];
+        accumulators = new Accumulator[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldAccumulators[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (accumulators[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                accumulators[slot] = oldAccumulators[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        // Team IDs differ only in their low bits, spread them over the whole table
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int[] getKeys() {
+        // Keys of every group, in ascending order
+        int[] result = new int[size];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (accumulators[i] != null) {
+                result[count++] = keys[i];
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    public Accumulator get(int key) {
+        // Accumulator of the group, null if no row has the key
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; accumulators[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return accumulators[slot];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,73 @@
+package query;
+
+import config.Const;
+import index.HashIndex;
+import storage.Column;
+import storage.Disk;
+
+public class HashScan implements Operator {
+    // Feed the records with one key of a hash index, in no particular order
+    // As for IndexScan the addresses of a batch are gathered first, then the fields are fetched with
+    // Disk.getValues, which reads every block of the batch once
+    private final Disk disk;
+    private final HashIndex hashIndex;
+    private final int key;
+    private final Column[] columns;
+    private final Batch batch;
+
+    private HashIndex.Cursor cursor;
+    private int rowCount;
+    private int blockAccess; // Distinct blocks read by each batched fetch, summed over the batches
+
+    public HashScan(Disk disk, HashIndex hashIndex, int key, Column... columns) {
+        // Key as returned by HashIndex.floatKey for a float column, or the value itself
+        this.disk = disk;
+        this.hashIndex = hashIndex;
+        this.key = key;
+        this.columns = columns.clone();
+        this.batch = new Batch(Const.QUERY_BATCH_SIZE, columns);
+    }
+
+    @Override
+    public void open() {
+        cursor = hashIndex.cursor(key);
+        rowCount = 0;
+        blockAccess = 0;
+    }
+
+    @Override
+    public Batch next() throws Exception {
+        long[] addresses = batch.getAddressVector();
+        int count = 0;
+        while (count < addresses.length && cursor.hasNext()) {
+            addresses[count++] = cursor.next();
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        if (columns.length > 0) {
+            blockAccess += disk.getValues(addresses, count, columns, batch.getValueVectors());
+        }
+        rowCount += count;
+        batch.setRowCount(count);
+        return batch;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public int getRowCount() {
+        // Records found so far
+        return rowCount;
+    }
+
+    public void printInfo() {
+        System.out.println();
+        System.out.println("Hash index");
+        System.out.println("------------------------------------------------------------------");
+        System.out.println("The number of index pages accessed: " + cursor.getPageAccessCount());
+        System.out.println("The number of data blocks accessed: " + blockAccess);
+    }
+}
@@ -0,0 +1,168 @@
+package query;
+
+import config.Const;
+import index.AddressIterator;
+import index.BPTree;
+import index.LongBPTree;
+import index.SecondaryIndex;
+import storage.Column;
+import storage.Disk;
+
+public class IndexScan implements Operator, RowSource {
+    // Feed the records whose key lies in [lowerBound, upperBound] of an index, in key order
+    // The addresses of a batch are pulled from the leaves, then the fields are fetched with Disk.getValues, which
+    // reads every block of the batch once, or straight from the leaves of a covering index that includes them all
+    private final Disk disk;
+    private final Column[] columns;
+    private final Batch batch;
+
+    // Either the B+ tree on FG_PCT_home with float bounds or a secondary index with long keys
+    private final BPTree tree;
+    private final float lowerFloat;
+    private final float upperFloat;
+    private final SecondaryIndex secondaryIndex;
+    private final long lowerKey;
+    private final long upperKey;
+    private final int[] includedPositions; // Position of each column in the values of a covering index, or null
+
+    private AddressIterator cursor;
+    private LongBPTree.Cursor secondaryCursor;
+    private int rowCount;
+    private int blockAccess; // Distinct blocks read by each batched fetch, summed over the batches
+
+    public IndexScan(Disk disk, BPTree tree, float lowerBound, float upperBound, Column... columns) {
+        this.disk = disk;
+        this.columns = columns.clone();
+        this.batch = new Batch(Const.QUERY_BATCH_SIZE, columns);
+        this.tree = tree;
+        this.lowerFloat = lowerBound;
+        this.upperFloat = upperBound;
+        this.secondaryIndex = null;
+        this.lowerKey = 0;
+        this.upperKey = 0;
+        this.includedPositions = null;
+    }
+
+    public IndexScan(Disk disk, SecondaryIndex secondaryIndex, long lowerKey, long upperKey, Column... columns) {
+        // Keys as taken by SecondaryIndex.forEachAddress
+        this.disk = disk;
+        this.columns = columns.clone();
+        this.batch = new Batch(Const.QUERY_BATCH_SIZE, columns);
+        this.tree = null;
+        this.lowerFloat = 0;
+        this.upperFloat = 0;
+        this.secondaryIndex = secondaryIndex;
+        this.lowerKey = lowerKey;
+        this.upperKey = upperKey;
+        this.includedPositions = isCovering(secondaryIndex, columns) ? new int[columns.length] : null;
+        for (int i = 0; includedPositions != null && i < columns.length; i++) {
+            includedPositions[i] = secondaryIndex.getIncludedPosition(columns[i]);
+        }
+    }
+
+    private static boolean isCovering(SecondaryIndex secondaryIndex, Column[] columns) {
+        for (Column column : columns) {
+            if (!secondaryIndex.includes(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void open() {
+        if (tree != null) {
+            cursor = tree.addressIterator(lowerFloat, upperFloat);
+        } else {
+            secondaryCursor = secondaryIndex.cursor(lowerKey, upperKey);
+        }
+        rowCount = 0;
+        blockAccess = 0;
+    }
+
+    @Override
+    public Batch next() throws Exception {
+        long[] addresses = batch.getAddressVector();
+        int count = 0;
+        if (cursor != null) {
+            while (count < addresses.length && cursor.hasNext()) {
+                addresses[count++] = cursor.next();
+            }
+        } else if (includedPositions != null) {
+            int[][] values = batch.getValueVectors();
+            while (count < addresses.length && secondaryCursor.hasNext()) {
+                addresses[count] = secondaryCursor.next();
+                for (int i = 0; i < columns.length; i++) {
+                    values[columns[i].ordinal()][count] = secondaryCursor.getValue(includedPositions[i]);
+                }
+                count++;
+            }
+        } else {
+            while (count < addresses.length && secondaryCursor.hasNext()) {
+                addresses[count++] = secondaryCursor.next();
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        if (includedPositions == null && columns.length > 0) {
+            blockAccess += disk.getValues(addresses, count, columns, batch.getValueVectors());
+        }
+        rowCount += count;
+        batch.setRowCount(count);
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+        }
+        secondaryCursor = null;
+    }
+
+    @Override
+    public void push(Sink sink) throws Exception {
+        // A covering index hands over its values during the walk along the leaves, without any cursor or batch
+        // Otherwise the addresses are still gathered a batch at a time, so the blocks are read in batched fetches
+        // Only the columns of the scan are filled, an operator above reading another one fails in RowSource.valueVector
+        if (includedPositions == null) {
+            RowSource.pushBatches(this, sink);
+            return;
+        }
+        open();
+        try {
+            int[][] values = batch.getValueVectors();
+            rowCount = secondaryIndex.forEachEntry(lowerKey, upperKey, (key, address, entryValues, offset) -> {
+                for (int i = 0; i < columns.length; i++) {
+                    values[columns[i].ordinal()][0] = entryValues[offset + includedPositions[i]];
+                }
+                sink.accept(values, 0);
+            });
+        } finally {
+            close();
+        }
+    }
+
+    public boolean isCovering() {
+        // True if no data block is read
+        return includedPositions != null;
+    }
+
+    public int getRowCount() {
+        // Records found so far
+        return rowCount;
+    }
+
+    public void printInfo() {
+        // Nodes read by the cursor of the B+ tree and data blocks read by the batched fetches
+        if (cursor != null) {
+            System.out.println();
+            System.out.println("B+ tree");
+            System.out.println("------------------------------------------------------------------");
+            System.out.println("The number of index nodes accessed: " + cursor.getNodeAccessCount());
+            System.out.println("The number of data blocks accessed: " + blockAccess);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package query;
+
+public class Limit implements Operator {
+    // Pass on the first limit rows, the child is not pulled any further once they are out
+    private final Operator child;
+    private final int limit;
+    private int remaining;
+
+    public Limit(Operator child, int limit) {
+        this.child = child;
+        this.limit = limit;
+    }
+
+    @Override
+    public void open() throws Exception {
+        remaining = limit;
+        child.open();
+    }
+
+    @Override
+    public Batch next() throws Exception {
+        if (remaining == 0) {
+            return null;
+        }
+        Batch batch = child.next();
+        if (batch == null) {
+            return null;
+        }
+        if (batch.size() > remaining) {
+            batch.setSize(remaining);
+        }
+        remaining -= batch.size();
+        return batch;
+    }
+
+    @Override
+    public void close() throws Exception {
+        child.close();
+    }
+}
@@ -0,0 +1,13 @@
+package query;
+
+public interface Operator {
+    // Operators are chained into a pipeline that is pulled from the top, a batch of records at a time
+    // Called once before the first batch is pulled
+    void open() throws Exception;
+
+    // Return the next batch with at least one row, or null once there is none left
+    Batch next() throws Exception;
+
+    // Called once the pipeline is done, including when it stopped early
+    void close() throws Exception;
+}
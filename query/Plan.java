@@ -0,0 +1,81 @@
+package query;
+
+public class Plan {
+    // Access path chosen by the Planner, with the estimates it was chosen on
+    private final Operator operator;
+    // Exactly one of the three scans is set
+    private final IndexScan indexScan;
+    private final HashScan hashScan;
+    private final TableScan tableScan;
+    private final double estimatedRows;
+    private final double indexCost;
+    private final double hashCost; // NaN if the hash index could not be used
+    private final double scanCost;
+
+    //Visibility: Package
+    Plan(Operator operator, IndexScan indexScan, HashScan hashScan, TableScan tableScan, double estimatedRows,
+            double indexCost, double hashCost, double scanCost) {
+        this.operator = operator;
+        this.indexScan = indexScan;
+        this.hashScan = hashScan;
+        this.tableScan = tableScan;
+        this.estimatedRows = estimatedRows;
+        this.indexCost = indexCost;
+        this.hashCost = hashCost;
+        this.scanCost = scanCost;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public boolean isIndexScan() {
+        return indexScan != null;
+    }
+
+    public boolean isHashScan() {
+        return hashScan != null;
+    }
+
+    public double getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public double getIndexCost() {
+        return indexCost;
+    }
+
+    public double getHashCost() {
+        return hashCost;
+    }
+
+    public double getScanCost() {
+        return scanCost;
+    }
+
+    public void printInfo() {
+        // The estimates, then the accesses of the chosen plan once it has run
+        System.out.println();
+        System.out.println("Query plan");
+        System.out.println("------------------------------------------------------------------");
+        System.out.println("The estimated number of records: " + Math.round(estimatedRows));
+        System.out.println("The estimated cost of the B+ tree: " + Math.round(indexCost) + " block accesses");
+        if (!Double.isNaN(hashCost)) {
+            System.out.println("The estimated cost of the hash index: " + Math.round(hashCost) + " block accesses");
+        }
+        System.out.println("The estimated cost of a linear scan: " + Math.round(scanCost) + " block accesses");
+        System.out.println("The chosen plan: " + (isIndexScan() ? "B+ tree" : isHashScan() ? "hash index"
+                : "linear scan"));
+
+        if (isIndexScan()) {
+            indexScan.printInfo();
+        } else if (isHashScan()) {
+            hashScan.printInfo();
+        } else {
+            System.out.println();
+            System.out.println("Parallel Linear Scan");
+            System.out.println("------------------------------------------------------------------");
+            System.out.println("The number of data blocks accessed: " + tableScan.getBlockAccessCount());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package query;
+
+import config.Const;
+import index.BPTree;
+import index.HashIndex;
+import stats.ColumnStatistics;
+import stats.TableStatistics;
+import storage.Column;
+import storage.Disk;
+
+public class Planner {
+    // Pick the cheapest of the B+ tree on FG_PCT_home, a linear scan and, for a single value, the hash index on
+    // FG_PCT_home if there is one, to find the records with FG_PCT_home in a range
+    // Costs are counted in block accesses: a scan reads every non-empty block once, an index scan reads the nodes
+    // down to the range and along it, a hash lookup the pages of one bucket, then either reads each data block
+    // holding a matching record once
+    // The number of matching records is estimated from the histogram of FG_PCT_home, no node or block is read
+    private final Disk disk;
+    private final BPTree index;
+    private final TableStatistics statistics;
+    private final HashIndex hashIndex; // null without a hash index
+
+    public Planner(Disk disk, BPTree index, TableStatistics statistics) {
+        this(disk, index, statistics, null);
+    }
+
+    public Planner(Disk disk, BPTree index, TableStatistics statistics, HashIndex hashIndex) {
+        if (hashIndex != null && hashIndex.getColumn() != Column.FG_PCT_home) {
+            throw new IllegalArgumentException("The hash index is on " + hashIndex.getColumn());
+        }
+        this.disk = disk;
+        this.index = index;
+        this.statistics = statistics;
+        this.hashIndex = hashIndex;
+    }
+
+    public Plan plan(float lowerBound, float upperBound, Column... columns) {
+        // Operator feeding the given columns of the records with FG_PCT_home in [lowerBound, upperBound]
+        int blockCount = disk.getBlockCount();
+        ColumnStatistics keyStatistics = statistics.get(Column.FG_PCT_home);
+        double selectivity = keyStatistics.estimateSelectivity(lowerBound, upperBound);
+        double rows = selectivity * statistics.getRowCount();
+        // Most nodes are leaves, the range covers about the same share of them as of the records
+        double blockReads = Const.INDEX_READ_COST * estimateBlocks(rows, blockCount);
+        double indexCost = index.getLevelCount() - 1 + Math.ceil(selectivity * index.getNodeCount()) + blockReads;
+        double scanCost = blockCount;
+        // The page of the bucket, then the postings pages holding the addresses of the key
+        double hashCost = Double.NaN;
+        if (hashIndex != null && Float.compare(lowerBound, upperBound) == 0) {
+            hashCost = 1 + Math.max(1, Math.ceil(rows / hashIndex.getPostingsCapacity())) + blockReads;
+        }
+
+        // On a tie the hash index is taken, its pages hold only the key looked up
+        if (hashCost <= indexCost && hashCost < scanCost) {
+            HashScan scan = new HashScan(disk, hashIndex, HashIndex.floatKey(lowerBound), columns);
+            return new Plan(scan, null, scan, null, rows, indexCost, hashCost, scanCost);
+        }
+        if (indexCost < scanCost) {
+            IndexScan scan = new IndexScan(disk, index, lowerBound, upperBound, columns);
+            return new Plan(scan, scan, null, null, rows, indexCost, hashCost, scanCost);
+        }
+
+        // The scan also reads FG_PCT_home to filter on it, the projection hides it again
+        Column[] scanColumns = columns;
+        if (!contains(columns, Column.FG_PCT_home)) {
+            scanColumns = new Column[columns.length + 1];
+            System.arraycopy(columns, 0, scanColumns, 0, columns.length);
+            scanColumns[columns.length] = Column.FG_PCT_home;
+        }
+        TableScan scan = new TableScan(disk, scanColumns);
+        Operator operator = new Project(new Filter(scan, Column.FG_PCT_home, lowerBound, upperBound), columns);
+        return new Plan(operator, null, null, scan, rows, indexCost, hashCost, scanCost);
+    }
+
+    //Visibility: Package
+    static double estimateBlocks(double rows, int blockCount) {
+        // Cardenas' estimate of the blocks holding rows records placed at random among blockCount blocks
+        // Addresses in key order are usually scattered over the file, so nothing better is assumed
+        if (blockCount == 0) {
+            return 0;
+        }
+        return blockCount * (1 - Math.pow(1 - 1.0 / blockCount, rows));
+    }
+
+    private static boolean contains(Column[] columns, Column column) {
+        for (Column c : columns) {
+            if (c == column) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,43 @@
+package query;
+
+import storage.Column;
+
+public class Project implements Operator, RowSource {
+    // Narrow the columns that can be read from the batches to the given ones, no value is copied
+    private final Operator child;
+    private final Column[] columns;
+
+    public Project(Operator child, Column... columns) {
+        this.child = child;
+        this.columns = columns.clone();
+    }
+
+    @Override
+    public void open() throws Exception {
+        child.open();
+    }
+
+    @Override
+    public Batch next() throws Exception {
+        Batch batch = child.next();
+        if (batch != null) {
+            batch.setColumns(columns);
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() throws Exception {
+        child.close();
+    }
+
+    @Override
+    public void push(Sink sink) throws Exception {
+        // Rows pushed are not narrowed, only Batch checks the visible columns
+        if (child instanceof RowSource) {
+            ((RowSource) child).push(sink);
+        } else {
+            RowSource.pushBatches(child, sink);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package query;
+
+import storage.Column;
+
+//Visibility: Package
+interface RowSource {
+    // Operators that can also run their whole pipeline by pushing every row into a sink, instead of returning
+    // batches, so that an aggregate on top runs inside the loop over the blocks or leaves at the bottom
+    // push opens and closes the operator itself
+    void push(Sink sink) throws Exception;
+
+    interface Sink {
+        // values is indexed by Column.ordinal() as in Batch, the row is only valid during the call
+        void accept(int[][] values, int row);
+    }
+
+    static int[] valueVector(int[][] values, Column column) {
+        // Values of a column in the rows pushed, which must be read by the scan as for Batch.getValueVector
+        int[] columnValues = values[column.ordinal()];
+        if (columnValues == null) {
+            throw new IllegalStateException(column + " is not read by the scan");
+        }
+        return columnValues;
+    }
+
+    static void pushBatches(Operator operator, Sink sink) throws Exception {
+        // Push the rows of an operator that can only return batches
+        operator.open();
+        try {
+            Batch batch;
+            while ((batch = operator.next()) != null) {
+                int[][] values = batch.getValueVectors();
+                int[] selection = batch.getSelectionVector();
+                for (int i = 0; i < batch.size(); i++) {
+                    sink.accept(values, selection[i]);
+                }
+            }
+        } finally {
+            operator.close();
+        }
+    }
+}
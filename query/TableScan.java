@@ -0,0 +1,85 @@
+package query;
+
+import config.Const;
+import storage.Block;
+import storage.Column;
+import storage.Disk;
+
+public class TableScan implements Operator, RowSource {
+    // Read every block in file order, each batch is filled with the records of as many whole blocks as fit
+    // Only the given columns are copied out of the blocks, pushed rows come from blocks read in parallel
+    private final Disk disk;
+    private final Column[] columns;
+    private final Batch batch;
+    private int blockID;
+    private int blockAccess;
+
+    public TableScan(Disk disk, Column... columns) {
+        this.disk = disk;
+        this.columns = columns.clone();
+        this.batch = new Batch(Math.max(Const.QUERY_BATCH_SIZE, Block.maxRecordCount), columns);
+    }
+
+    @Override
+    public void open() {
+        blockID = 0;
+        blockAccess = 0;
+    }
+
+    @Override
+    public Batch next() throws Exception {
+        int rowCount = 0;
+        int blockCount = disk.getFreeSpaceMap().getBlockCount();
+        while (blockID < blockCount && rowCount + Block.maxRecordCount <= batch.getCapacity()) {
+            int read = disk.readColumns(blockID++, columns, batch.getAddressVector(), batch.getValueVectors(),
+                    rowCount);
+            if (read > 0) {
+                blockAccess++;
+                rowCount += read;
+            }
+        }
+        if (rowCount == 0) {
+            return null;
+        }
+        batch.setRowCount(rowCount);
+        return batch;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void push(Sink sink) throws Exception {
+        // The blocks are read in parallel, PARALLEL_SCAN_BLOCKS at a time, then their records are handed over on
+        // this thread in block order, so the sink sees the same rows in the same order as with next()
+        open();
+        try {
+            int blockCount = disk.getFreeSpaceMap().getBlockCount();
+            int roundBlocks = Math.min(Const.PARALLEL_SCAN_BLOCKS, blockCount);
+            long[] addresses = new long[roundBlocks * Block.maxRecordCount];
+            int[][] values = new int[Column.values().length][];
+            for (Column column : columns) {
+                values[column.ordinal()] = new int[addresses.length];
+            }
+            int[] rowCounts = new int[roundBlocks];
+
+            for (; blockID < blockCount; blockID += roundBlocks) {
+                int toBlockID = Math.min(blockID + roundBlocks, blockCount);
+                blockAccess += disk.parallelReadColumns(blockID, toBlockID, columns, addresses, values, rowCounts);
+                for (int i = 0; i < toBlockID - blockID; i++) {
+                    for (int row = i * Block.maxRecordCount; row < i * Block.maxRecordCount + rowCounts[i]; row++) {
+                        sink.accept(values, row);
+                    }
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    public int getBlockAccessCount() {
+        // Blocks read so far, empty blocks are skipped without reading them
+        return blockAccess;
+    }
+}
@@ -0,0 +1,161 @@
+package stats;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import config.Const;
+import storage.Column;
+
+public class ColumnStatistics {
+    // Null count, bounds, distinct values and distribution of the values of one column
+    // Values are handled as doubles: int columns as they are, float columns by value and the date as yyyymmdd
+    // Only float columns can hold a null, as NaN, since the loader drops every row with an empty field
+    // Up to STATISTICS_EXACT_VALUES distinct values every value is counted, so the bounds and the distinct count
+    // stay exact through deletions; past that only the histogram and the sketch are kept, which cannot take a
+    // value out again, and the bounds and distinct count are stale once a value has been removed
+    private final Column column;
+    private long nullCount;
+    private final HyperLogLog distinctValues;
+    private final Histogram histogram;
+    private TreeMap<Double, Long> valueCounts; // null once there are too many distinct values
+    private boolean stale;
+
+    //Visibility: Package
+    ColumnStatistics(Column column, int[] values, int count) {
+        // Built from the raw values of the column (see Block.getValue)
+        this.column = column;
+        this.distinctValues = new HyperLogLog(Const.STATISTICS_HLL_PRECISION);
+
+        double[] sorted = new double[count];
+        int nonNull = 0;
+        for (int i = 0; i < count; i++) {
+            double value = valueOf(values[i]);
+            if (Double.isNaN(value)) {
+                nullCount++;
+                continue;
+            }
+            sorted[nonNull++] = value;
+            distinctValues.add(values[i]);
+        }
+        Arrays.sort(sorted, 0, nonNull);
+        this.histogram = new Histogram(sorted, nonNull, Const.STATISTICS_BUCKETS, !column.isFloat());
+
+        this.valueCounts = new TreeMap<>();
+        for (int i = 0, run = 1; i < nonNull && valueCounts != null; i++, run++) {
+            if (i + 1 == nonNull || Double.compare(sorted[i + 1], sorted[i]) != 0) {
+                valueCounts.put(sorted[i], (long) run);
+                run = 0;
+                if (valueCounts.size() > Const.STATISTICS_EXACT_VALUES) {
+                    valueCounts = null;
+                }
+            }
+        }
+    }
+
+    private void count(double value) {
+        valueCounts.merge(value, 1L, Long::sum);
+        if (valueCounts.size() > Const.STATISTICS_EXACT_VALUES) {
+            valueCounts = null;
+        }
+    }
+
+    private double valueOf(int value) {
+        return column.isFloat() ? Float.intBitsToFloat(value) : value;
+    }
+
+    //Visibility: Package
+    void add(int value) {
+        double number = valueOf(value);
+        if (Double.isNaN(number)) {
+            nullCount++;
+            return;
+        }
+        distinctValues.add(value);
+        histogram.add(number);
+        if (valueCounts != null) {
+            count(number);
+        }
+    }
+
+    //Visibility: Package
+    void remove(int value) {
+        double number = valueOf(value);
+        if (Double.isNaN(number)) {
+            nullCount = Math.max(0, nullCount - 1);
+            return;
+        }
+        histogram.remove(number);
+        if (valueCounts != null) {
+            valueCounts.computeIfPresent(number, (v, count) -> count == 1 ? null : count - 1);
+        } else {
+            stale = true;
+        }
+    }
+
+    public Column getColumn() {
+        return column;
+    }
+
+    public long getCount() {
+        // Non-null values
+        return histogram.getTotal();
+    }
+
+    public long getNullCount() {
+        return nullCount;
+    }
+
+    public boolean isStale() {
+        // True if the bounds and the distinct count may still include removed values, see above
+        return stale;
+    }
+
+    public double getMin() {
+        // Smallest value, NaN without any value
+        // Without the counts this is the lower bound of the first bucket holding a value, which may be lower
+        if (valueCounts != null) {
+            return valueCounts.isEmpty() ? Double.NaN : valueCounts.firstKey();
+        }
+        return histogram.getMin();
+    }
+
+    public double getMax() {
+        // Largest value, likewise possibly higher without the counts
+        if (valueCounts != null) {
+            return valueCounts.isEmpty() ? Double.NaN : valueCounts.lastKey();
+        }
+        return histogram.getMax();
+    }
+
+    public long getDistinctCount() {
+        // Exact while every value is counted, otherwise estimated and at most the number of values
+        if (valueCounts != null) {
+            return valueCounts.size();
+        }
+        return Math.min(Math.round(distinctValues.estimate()), getCount());
+    }
+
+    public double estimateCount(double lowerBound, double upperBound) {
+        // Estimated number of records with a value in [lowerBound, upperBound]
+        return histogram.estimate(lowerBound, upperBound);
+    }
+
+    public double estimateSelectivity(double lowerBound, double upperBound) {
+        // Fraction of all the records, nulls included, with a value in [lowerBound, upperBound]
+        long records = getCount() + nullCount;
+        return records == 0 ? 0 : estimateCount(lowerBound, upperBound) / records;
+    }
+
+    public void printInfo() {
+        // Stale figures are marked with a ~
+        String mark = stale ? "~" : "";
+        System.out.printf("%-15s %8d %6d %9s %12s %12s %8d%n", column, getCount(), nullCount,
+                mark + getDistinctCount(), mark + format(getMin()), mark + format(getMax()),
+                histogram.getBucketCount());
+    }
+
+    private String format(double value) {
+        return Double.isNaN(value) ? "-" : column.isFloat() ? String.valueOf((float) value)
+                : String.valueOf((long) value);
+    }
+}
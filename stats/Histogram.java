@@ -0,0 +1,223 @@
+package stats;
+
+import java.util.Arrays;
+
+public class Histogram {
+    // Equi-depth histogram: every bucket [lower, upper] holds about the same number of values
+    // A value occurring at least as often as a bucket holds gets a bucket of its own, so frequent values are
+    // estimated exactly instead of being averaged with their neighbours
+    // Built once from the sorted values, then kept up to date one value at a time: an insertion outside every
+    // bucket widens the nearest one, and a bucket grown past twice the depth is split at the middle of its range
+    // while the two adjacent buckets with the fewest values are merged, so the number of buckets stays the same
+    // Within a bucket the values are assumed to spread evenly over its range
+    private final boolean discrete; // Only whole numbers, so [a, b] holds b - a + 1 possible values
+    private final int targetBuckets;
+    private double[] lower;
+    private double[] upper;
+    private long[] counts;
+    private long[] distincts; // Distinct values of each bucket when it was built, estimated after a split
+    private int bucketCount;
+    private long total;
+
+    public Histogram(double[] sortedValues, int count, int targetBuckets, boolean discrete) {
+        this.discrete = discrete;
+        this.targetBuckets = targetBuckets;
+        this.lower = new double[targetBuckets];
+        this.upper = new double[targetBuckets];
+        this.counts = new long[targetBuckets];
+        this.distincts = new long[targetBuckets];
+        this.total = count;
+
+        int depth = Math.max(1, (count + targetBuckets - 1) / targetBuckets);
+        int i = 0;
+        while (i < count) {
+            int start = i;
+            long distinct = 0;
+            while (i < count && i - start < depth) {
+                int runEnd = i + 1;
+                while (runEnd < count && sortedValues[runEnd] == sortedValues[i]) {
+                    runEnd++;
+                }
+                if (runEnd - i >= depth && i > start) {
+                    // A frequent value is left for a bucket of its own
+                    break;
+                }
+                distinct++;
+                boolean frequent = runEnd - i >= depth;
+                i = runEnd;
+                if (frequent) {
+                    break;
+                }
+            }
+            appendBucket(sortedValues[start], sortedValues[i - 1], i - start, distinct);
+        }
+    }
+
+    private void appendBucket(double lowerBound, double upperBound, long count, long distinct) {
+        if (bucketCount == lower.length) {
+            int capacity = Math.max(1, bucketCount * 2);
+            lower = Arrays.copyOf(lower, capacity);
+            upper = Arrays.copyOf(upper, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            distincts = Arrays.copyOf(distincts, capacity);
+        }
+        lower[bucketCount] = lowerBound;
+        upper[bucketCount] = upperBound;
+        counts[bucketCount] = count;
+        distincts[bucketCount] = distinct;
+        bucketCount++;
+    }
+
+    public void add(double value) {
+        total++;
+        if (bucketCount == 0) {
+            appendBucket(value, value, 1, 1);
+            return;
+        }
+
+        int bucket = findBucket(value);
+        if (value > upper[bucket]) {
+            upper[bucket] = value;
+            distincts[bucket]++;
+        } else if (value < lower[bucket]) {
+            lower[bucket] = value;
+            distincts[bucket]++;
+        }
+        counts[bucket]++;
+
+        if (counts[bucket] > 2 * getDepth() && lower[bucket] < upper[bucket]) {
+            splitBucket(bucket);
+            mergeSmallestPair();
+        }
+    }
+
+    public void remove(double value) {
+        // Buckets left empty are kept, they still tell where values were
+        int bucket = findBucket(value);
+        if (bucketCount == 0 || value < lower[bucket] || value > upper[bucket] || counts[bucket] == 0) {
+            return;
+        }
+        counts[bucket]--;
+        total--;
+    }
+
+    private int findBucket(double value) {
+        // First bucket with upper >= value, the last bucket if there is none
+        int low = 0;
+        int high = bucketCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (upper[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long getDepth() {
+        return Math.max(1, total / targetBuckets);
+    }
+
+    private void splitBucket(int bucket) {
+        double middle = (lower[bucket] + upper[bucket]) / 2;
+        if (discrete) {
+            middle = Math.floor(middle);
+        }
+        double right = discrete ? middle + 1 : Math.nextUp(middle);
+        long leftCount = counts[bucket] / 2;
+        long leftDistinct = Math.max(1, distincts[bucket] / 2);
+
+        appendBucket(0, 0, 0, 0);
+        System.arraycopy(lower, bucket + 1, lower, bucket + 2, bucketCount - bucket - 2);
+        System.arraycopy(upper, bucket + 1, upper, bucket + 2, bucketCount - bucket - 2);
+        System.arraycopy(counts, bucket + 1, counts, bucket + 2, bucketCount - bucket - 2);
+        System.arraycopy(distincts, bucket + 1, distincts, bucket + 2, bucketCount - bucket - 2);
+
+        lower[bucket + 1] = right;
+        upper[bucket + 1] = upper[bucket];
+        counts[bucket + 1] = counts[bucket] - leftCount;
+        distincts[bucket + 1] = Math.max(1, distincts[bucket] - leftDistinct);
+        upper[bucket] = middle;
+        counts[bucket] = leftCount;
+        distincts[bucket] = leftDistinct;
+    }
+
+    private void mergeSmallestPair() {
+        int best = 0;
+        for (int i = 1; i + 1 < bucketCount; i++) {
+            if (counts[i] + counts[i + 1] < counts[best] + counts[best + 1]) {
+                best = i;
+            }
+        }
+        upper[best] = upper[best + 1];
+        counts[best] += counts[best + 1];
+        distincts[best] += distincts[best + 1];
+
+        System.arraycopy(lower, best + 2, lower, best + 1, bucketCount - best - 2);
+        System.arraycopy(upper, best + 2, upper, best + 1, bucketCount - best - 2);
+        System.arraycopy(counts, best + 2, counts, best + 1, bucketCount - best - 2);
+        System.arraycopy(distincts, best + 2, distincts, best + 1, bucketCount - best - 2);
+        bucketCount--;
+    }
+
+    public double estimate(double lowerBound, double upperBound) {
+        // Estimated number of values in [lowerBound, upperBound]
+        if (lowerBound > upperBound) {
+            return 0;
+        }
+        double estimate = 0;
+        for (int i = findBucket(lowerBound); i < bucketCount && lower[i] <= upperBound; i++) {
+            if (upper[i] >= lowerBound) {
+                estimate += counts[i] * overlap(i, lowerBound, upperBound);
+            }
+        }
+        return estimate;
+    }
+
+    private double overlap(int bucket, double lowerBound, double upperBound) {
+        // Fraction of the values of the bucket that lie in [lowerBound, upperBound]
+        double from = Math.max(lowerBound, lower[bucket]);
+        double to = Math.min(upperBound, upper[bucket]);
+        if (lower[bucket] == upper[bucket]) {
+            return 1;
+        }
+        if (from == to) {
+            // A single value, one of the distinct values of the bucket
+            return 1.0 / Math.max(1, distincts[bucket]);
+        }
+        if (discrete) {
+            double values = Math.floor(to) - Math.ceil(from) + 1;
+            return Math.max(0, values) / (upper[bucket] - lower[bucket] + 1);
+        }
+        return (to - from) / (upper[bucket] - lower[bucket]);
+    }
+
+    public double getMin() {
+        // Lower bound of the first bucket holding a value, NaN if there is none
+        for (int i = 0; i < bucketCount; i++) {
+            if (counts[i] > 0) {
+                return lower[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    public double getMax() {
+        for (int i = bucketCount - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return upper[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+}
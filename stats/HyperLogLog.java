@@ -0,0 +1,51 @@
+package stats;
+
+public class HyperLogLog {
+    // Estimate of the number of distinct values from 2^precision one-byte registers (Flajolet et al.)
+    // Each value is hashed, the first precision bits pick a register and the register keeps the longest run of
+    // leading zeros seen in the remaining bits; the standard error is about 1.04 / sqrt(2^precision)
+    // Values cannot be taken out again, so after deletions the estimate is an upper bound
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public void add(long value) {
+        long hash = hash(value);
+        int index = (int) (hash >>> (64 - precision));
+        // The guard bit caps the rank when every remaining bit is zero
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    public double estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // Small cardinalities are counted from the empty registers instead (linear counting)
+            return m * Math.log((double) m / zeros);
+        }
+        // With a 64 bit hash no correction is needed for large cardinalities
+        return estimate;
+    }
+
+    private static long hash(long value) {
+        // Finalizer of MurmurHash3, every input bit affects every output bit
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB93FE53EF9B3L;
+        return value ^ (value >>> 33);
+    }
+}
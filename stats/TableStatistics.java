@@ -0,0 +1,75 @@
+package stats;
+
+import java.util.EnumMap;
+
+import storage.Address;
+import storage.Block;
+import storage.Column;
+import storage.Disk;
+
+public class TableStatistics implements Disk.RecordListener {
+    // Statistics of every column, built from the records on a disk and then kept up to date by it
+    // (see Disk.addRecordListener), so a plan can be costed without reading any block
+    // Nothing is saved, the statistics are rebuilt whenever the database is opened
+    private final EnumMap<Column, ColumnStatistics> columns;
+    private long rowCount;
+    private int[][] pending; // Values replayed by the disk while building, by column ordinal, null once built
+
+    private TableStatistics(int recordCount) {
+        this.columns = new EnumMap<>(Column.class);
+        this.pending = new int[Column.values().length][recordCount];
+    }
+
+    public static TableStatistics build(Disk disk) throws Exception {
+        // Collect every value while the disk hands over its records, then sort each column at once
+        TableStatistics statistics = new TableStatistics(disk.getRecordCount());
+        disk.addRecordListener(statistics);
+        for (Column column : Column.values()) {
+            statistics.columns.put(column,
+                    new ColumnStatistics(column, statistics.pending[column.ordinal()], (int) statistics.rowCount));
+        }
+        statistics.pending = null;
+        return statistics;
+    }
+
+    @Override
+    public void recordInserted(Block block, Address address) {
+        if (pending != null) {
+            for (Column column : Column.values()) {
+                pending[column.ordinal()][(int) rowCount] = block.getValue(address.offset, column);
+            }
+        } else {
+            for (ColumnStatistics statistics : columns.values()) {
+                statistics.add(block.getValue(address.offset, statistics.getColumn()));
+            }
+        }
+        rowCount++;
+    }
+
+    @Override
+    public void recordDeleted(Block block, Address address) {
+        for (ColumnStatistics statistics : columns.values()) {
+            statistics.remove(block.getValue(address.offset, statistics.getColumn()));
+        }
+        rowCount--;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public ColumnStatistics get(Column column) {
+        return columns.get(column);
+    }
+
+    public void printInfo() {
+        System.out.println();
+        System.out.println("Column statistics (" + rowCount + " records)");
+        System.out.println("------------------------------------------------------------------");
+        System.out.printf("%-15s %8s %6s %9s %12s %12s %8s%n", "Column", "Values", "Nulls", "Distinct", "Min", "Max",
+                "Buckets");
+        for (ColumnStatistics statistics : columns.values()) {
+            statistics.printInfo();
+        }
+    }
+}
@@ -8,4 +8,21 @@ public class Address {
         this.blockID = blockID;
         this.offset = offset;
     }
-}
\ No newline at end of file
+
+    public static long pack(int blockID, int offset) {
+        // Address packed in a long, ordered by block ID and then offset
+        return (long) blockID << 32 | (offset & 0xFFFFFFFFL);
+    }
+
+    public static int blockID(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    public static int offset(long packed) {
+        return (int) packed;
+    }
+
+    public static Address unpack(long packed) {
+        return new Address(blockID(packed), offset(packed));
+    }
+}
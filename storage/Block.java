@@ -1,65 +1,165 @@
 package storage;
 
+import java.nio.ByteBuffer;
+
 import config.Const;
 
 public class Block {
-    public static int maxRecordCount = (int) Math.floor(Const.BLOCK_SIZE / Record.size);
-    int recordCount;
-    Record[] records;
+    // Page layout (Const.BLOCK_SIZE bytes):
+    // [recordCount (2B)][slot directory (1B per slot)][fixed-width records, arranged by BlockLayout]
+    private static final int COUNT_SIZE = 2;
+    private static final int SLOT_ENTRY_SIZE = 1;
+    private static final byte SLOT_FREE = 0;
+    private static final byte SLOT_USED = 1;
+
+    public static int maxRecordCount = (Const.BLOCK_SIZE - COUNT_SIZE) / (SLOT_ENTRY_SIZE + Record.size);
+    static final int HEADER_SIZE = COUNT_SIZE + maxRecordCount * SLOT_ENTRY_SIZE;
+
+    ByteBuffer buffer;
+    BlockLayout layout;
+
+    public Block(BlockLayout layout) {
+        this(Const.DIRECT_BLOCK_BUFFER ? ByteBuffer.allocateDirect(Const.BLOCK_SIZE)
+                : ByteBuffer.allocate(Const.BLOCK_SIZE), layout);
+    }
 
-    public Block(){
-        this.recordCount = 0;
-        this.records = new Record[maxRecordCount];
+    public Block(ByteBuffer buffer, BlockLayout layout) {
+        // Wrap an existing page, the buffer must hold exactly one block
+        this.buffer = buffer;
+        this.layout = layout;
+    }
+
+    public BlockLayout getLayout() {
+        return this.layout;
+    }
+
+    public int getRecordCount() {
+        return buffer.getShort(0);
     }
 
     public boolean isEmpty(){
-        return recordCount == 0;
+        return getRecordCount() == 0;
     }
     
     public boolean isFull() {
-        return recordCount >= maxRecordCount;
+        return getRecordCount() >= maxRecordCount;
+    }
+
+    public boolean isOccupied(int offset) {
+        return buffer.get(COUNT_SIZE + offset) == SLOT_USED;
     }
 
     public Record getRecordAt(int offset) throws Exception{
-        if (records[offset] == null){
+        if (!isOccupied(offset)){
             throw new Exception("Invalid address");
         }
-        return records[offset];
+        return Record.readFrom(buffer, layout, offset);
     }
 
     public Record[] getRecords() {
-        return this.records;
+        // Decode every occupied slot, free slots are left as null
+        Record[] records = new Record[maxRecordCount];
+        for (int i = 0; i < maxRecordCount; i++) {
+            if (isOccupied(i)) {
+                records[i] = Record.readFrom(buffer, layout, i);
+            }
+        }
+        return records;
+    }
+
+    public float getFloat(int offset, Column column) {
+        // Read a single field straight from the page without decoding the record
+        return buffer.getFloat(layout.position(offset, column));
+    }
+
+    public int getInt(int offset, Column column) {
+        return buffer.getInt(layout.position(offset, column));
+    }
+
+    public byte getByte(int offset, Column column) {
+        return buffer.get(layout.position(offset, column));
+    }
+
+    public int getDate(int offset) {
+        // GAME_DATE_EST as the number yyyymmdd, which sorts in date order unlike the stored DDMMYYYY
+        int position = layout.position(offset, Column.GAME_DATE_EST);
+        int day = (buffer.get(position) - '0') * 10 + buffer.get(position + 1) - '0';
+        int month = (buffer.get(position + 2) - '0') * 10 + buffer.get(position + 3) - '0';
+        int year = 0;
+        for (int i = 4; i < 8; i++) {
+            year = year * 10 + buffer.get(position + i) - '0';
+        }
+        return year * 10000 + month * 100 + day;
+    }
+
+    public int getValue(int offset, Column column) {
+        // Any field as an int: floats as their bits, the date as yyyymmdd and HOME_TEAM_WINS as 0 or 1
+        switch (column) {
+            case GAME_DATE_EST:
+                return getDate(offset);
+            case HOME_TEAM_WINS:
+                return getByte(offset, column);
+            default:
+                return buffer.getInt(layout.position(offset, column));
+        }
+    }
+
+    public void getFloats(Column column, float[] values) {
+        // Copy one column of every slot (occupied or not) into values
+        // With the PAX layout this reads a single contiguous run of the page
+        int position = layout.position(0, column);
+        int stride = layout.position(1, column) - position;
+        for (int i = 0; i < maxRecordCount; i++) {
+            values[i] = buffer.getFloat(position + i * stride);
+        }
     }
 
     //Visibility: Package
-    int insertRecord(Record newRecord) throws Exception{
-        int offset = -1;
-        
-        for (int i = 0; i < records.length; i++){
-            if (records[i] == null){
-                records[i] = newRecord;
-                recordCount++;
-                offset = i;
-                break;
-            }
+    //The free slot is chosen by the FreeSpaceMap of the disk
+    void insertRecordAt(int offset, Record newRecord) throws Exception{
+        if (isOccupied(offset)){
+            throw new Exception("Insertion failed");
         }
 
-        if (offset == -1){
+        newRecord.writeTo(buffer, layout, offset);
+        buffer.put(COUNT_SIZE + offset, SLOT_USED);
+        setRecordCount(getRecordCount() + 1);
+    }
+
+    //Visibility: Package
+    //Same as insertRecordAt for a record given in its row format (Record.size bytes laid out as in NSM)
+    void insertRowAt(int offset, ByteBuffer row, int position) throws Exception{
+        if (isOccupied(offset)){
             throw new Exception("Insertion failed");
         }
 
-        return offset;
+        for (Column column : Column.values()) {
+            buffer.put(layout.position(offset, column), row, position + column.offset, column.width);
+        }
+        buffer.put(COUNT_SIZE + offset, SLOT_USED);
+        setRecordCount(getRecordCount() + 1);
+    }
+
+    public void readRow(int offset, ByteBuffer row, int position) {
+        // Copy the record at offset into row in its row format, whatever the layout of this block
+        for (Column column : Column.values()) {
+            row.put(position + column.offset, buffer, layout.position(offset, column), column.width);
+        }
     }
 
     //Visibility: Package
     //Return True if the block is emptied
     boolean deleteRecordAt(int offset) throws Exception{
-        if (records[offset] != null){
-            records[offset] = null;
-            recordCount--;
-            return recordCount == 0;
+        if (isOccupied(offset)){
+            buffer.put(COUNT_SIZE + offset, SLOT_FREE);
+            setRecordCount(getRecordCount() - 1);
+            return getRecordCount() == 0;
         } else {
             throw new Exception("Deletion failed");
         }
     }
-}
\ No newline at end of file
+
+    private void setRecordCount(int recordCount) {
+        buffer.putShort(0, (short) recordCount);
+    }
+}
@@ -0,0 +1,19 @@
+package storage;
+
+public enum BlockLayout {
+    // N-ary storage model: each record is stored contiguously in its own slot
+    NSM {
+        int position(int offset, Column column) {
+            return Block.HEADER_SIZE + offset * Record.size + column.offset;
+        }
+    },
+    // Partition attributes across: each column of the block is stored contiguously in its own minipage
+    PAX {
+        int position(int offset, Column column) {
+            return Block.HEADER_SIZE + column.offset * Block.maxRecordCount + offset * column.width;
+        }
+    };
+
+    // Byte position of a field of the record at the given slot, relative to the start of the block
+    abstract int position(int offset, Column column);
+}
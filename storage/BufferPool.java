@@ -0,0 +1,257 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import config.Const;
+
+public class BufferPool {
+    private final FileChannel channel;
+    private final long firstPagePosition; // File position of block 0
+    private final EvictionPolicy policy;
+
+    private final Block[] frames;
+    private final int[] frameBlockIDs; // Block held by each frame, -1 if the frame is free
+    private final int[] pinCounts;
+    private final boolean[] dirty;
+    private final boolean[] prefetched; // Read ahead by prefetch and not pinned since
+    private final int[] blockFrames; // Frame holding each block, -1 if the block is not resident
+    private final int[] freeFrames; // Stack of the frames holding no block
+    private int freeFrameCount;
+    private WriteAheadLog log; // Forced before a dirty block is written back
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long writeBackCount;
+    private long prefetchCount;
+
+    public BufferPool(FileChannel channel, long firstPagePosition, BlockLayout layout, int frameCount,
+            int maxBlocks, EvictionPolicy policy) {
+        this.channel = channel;
+        this.firstPagePosition = firstPagePosition;
+        this.policy = policy;
+
+        this.frames = new Block[frameCount];
+        this.frameBlockIDs = new int[frameCount];
+        this.pinCounts = new int[frameCount];
+        this.dirty = new boolean[frameCount];
+        this.prefetched = new boolean[frameCount];
+        this.blockFrames = new int[maxBlocks];
+        this.freeFrames = new int[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            frames[i] = new Block(layout);
+            freeFrames[i] = frameCount - 1 - i;
+        }
+        this.freeFrameCount = frameCount;
+        Arrays.fill(frameBlockIDs, -1);
+        Arrays.fill(blockFrames, -1);
+    }
+
+    public void setLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    public static EvictionPolicy createPolicy(int frameCount, int lruK) {
+        // CLOCK when lruK is 0, LRU-K otherwise
+        if (lruK > 0) {
+            return new LRUKEvictionPolicy(frameCount, lruK);
+        }
+        return new ClockEvictionPolicy(frameCount);
+    }
+
+    public synchronized Block pin(int blockID) throws IOException {
+        // Return the block held in a frame, reading it from the file on a miss
+        // The first pin of a prefetched block counts as a miss too, since the block was read for it
+        // The frame cannot be evicted until the block is unpinned
+        int frameID = blockFrames[blockID];
+        if (frameID != -1 && prefetched[frameID]) {
+            prefetched[frameID] = false;
+            missCount++;
+        } else if (frameID != -1) {
+            hitCount++;
+        } else {
+            missCount++;
+            frameID = acquireFrame(blockID);
+            readPage(blockID, frames[frameID].buffer);
+        }
+
+        pinCounts[frameID]++;
+        policy.recordAccess(frameID);
+        return frames[frameID];
+    }
+
+    public synchronized Block pinNew(int blockID) throws IOException {
+        // Pin a newly allocated block, which starts as an empty page instead of being read
+        int frameID = acquireFrame(blockID);
+        ByteBuffer buffer = frames[frameID].buffer;
+        for (int i = 0; i < Const.BLOCK_SIZE; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        dirty[frameID] = true;
+
+        pinCounts[frameID]++;
+        policy.recordAccess(frameID);
+        return frames[frameID];
+    }
+
+    public synchronized int prefetch(int[] blockIDs, int from, int to) throws IOException {
+        // Read the blocks blockIDs[from, to) that are not resident yet without pinning them, so that pinning
+        // them afterwards does not wait for the file, and return the number of blocks read
+        // The IDs must be sorted and distinct, runs of consecutive blocks are read from the file in one go
+        int read = 0;
+        int i = from;
+        while (i < to) {
+            if (blockFrames[blockIDs[i]] != -1) {
+                i++;
+                continue;
+            }
+            int runEnd = i + 1;
+            while (runEnd < to && blockIDs[runEnd] == blockIDs[runEnd - 1] + 1 && blockFrames[blockIDs[runEnd]] == -1) {
+                runEnd++;
+            }
+
+            ByteBuffer run = ByteBuffer.allocate((runEnd - i) * Const.BLOCK_SIZE);
+            readPage(blockIDs[i], run);
+            for (int j = i; j < runEnd; j++) {
+                int frameID = acquireFrame(blockIDs[j]);
+                frames[frameID].buffer.put(0, run, (j - i) * Const.BLOCK_SIZE, Const.BLOCK_SIZE);
+                prefetched[frameID] = true;
+                policy.recordAccess(frameID);
+            }
+            read += runEnd - i;
+            i = runEnd;
+        }
+        prefetchCount += read;
+        return read;
+    }
+
+    public synchronized void unpin(int blockID, boolean isDirty) {
+        int frameID = blockFrames[blockID];
+        if (frameID == -1 || pinCounts[frameID] == 0) {
+            throw new IllegalStateException("Block " + blockID + " is not pinned");
+        }
+        pinCounts[frameID]--;
+        dirty[frameID] |= isDirty;
+    }
+
+    public synchronized void flush() throws IOException {
+        // Write every dirty frame back to the file
+        for (int frameID = 0; frameID < frames.length; frameID++) {
+            if (dirty[frameID]) {
+                writePage(frameBlockIDs[frameID], frames[frameID].buffer);
+                dirty[frameID] = false;
+            }
+        }
+    }
+
+    public synchronized void discard(int fromBlockID) {
+        // Drop the blocks from fromBlockID on without writing them back, used when the disk shrinks
+        for (int frameID = 0; frameID < frames.length; frameID++) {
+            int blockID = frameBlockIDs[frameID];
+            if (blockID < fromBlockID) {
+                continue;
+            }
+            if (pinCounts[frameID] != 0) {
+                throw new IllegalStateException("Block " + blockID + " is pinned");
+            }
+            dirty[frameID] = false;
+            blockFrames[blockID] = -1;
+            frameBlockIDs[frameID] = -1;
+            policy.reset(frameID);
+            freeFrames[freeFrameCount++] = frameID;
+        }
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+        writeBackCount = 0;
+        prefetchCount = 0;
+    }
+
+    public synchronized void printInfo() {
+        long accesses = hitCount + missCount;
+        System.out.println();
+        System.out.println("Buffer pool (" + frames.length + " frames, " + policy.getClass().getSimpleName() + ")");
+        System.out.println("------------------------------------------------------------------");
+        System.out.printf("Hits: %d, Misses: %d, Hit ratio: %.2f%%\n", hitCount, missCount,
+                accesses == 0 ? 0 : 100.0 * hitCount / accesses);
+        System.out.printf("Evictions: %d, Dirty write-backs: %d, Prefetched: %d\n", evictionCount, writeBackCount,
+                prefetchCount);
+    }
+
+    private int acquireFrame(int blockID) throws IOException {
+        // Find a free frame or evict one, writing it back first if it is dirty
+        int frameID = -1;
+        if (freeFrameCount > 0) {
+            frameID = freeFrames[--freeFrameCount];
+        } else {
+            frameID = policy.selectVictim(pinCounts);
+            if (frameID == -1) {
+                throw new IllegalStateException("Every frame of the buffer pool is pinned");
+            }
+            int victimBlockID = frameBlockIDs[frameID];
+            if (dirty[frameID]) {
+                writePage(victimBlockID, frames[frameID].buffer);
+                dirty[frameID] = false;
+            }
+            blockFrames[victimBlockID] = -1;
+            evictionCount++;
+        }
+
+        policy.reset(frameID);
+        prefetched[frameID] = false;
+        frameBlockIDs[frameID] = blockID;
+        blockFrames[blockID] = frameID;
+        return frameID;
+    }
+
+    private void readPage(int blockID, ByteBuffer buffer) throws IOException {
+        // Fill the buffer from the page of blockID on, a buffer of several pages reads consecutive blocks
+        ByteBuffer target = buffer.duplicate();
+        target.clear();
+        long position = firstPagePosition + (long) blockID * Const.BLOCK_SIZE;
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                // Past the end of the file, the rest of the page has never been written
+                while (target.hasRemaining()) {
+                    target.put((byte) 0);
+                }
+            }
+        }
+    }
+
+    private void writePage(int blockID, ByteBuffer buffer) throws IOException {
+        // Write-ahead rule: the log records of a change reach the storage device before the block does
+        if (log != null) {
+            log.sync();
+        }
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        long position = firstPagePosition + (long) blockID * Const.BLOCK_SIZE;
+        while (source.hasRemaining()) {
+            channel.write(source, position + source.position());
+        }
+        writeBackCount++;
+    }
+}
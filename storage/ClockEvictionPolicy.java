@@ -0,0 +1,38 @@
+package storage;
+
+public class ClockEvictionPolicy implements EvictionPolicy {
+    // Second-chance replacement: a referenced frame is skipped once before it can be evicted
+    private final boolean[] referenced;
+    private int hand;
+
+    public ClockEvictionPolicy(int frameCount) {
+        this.referenced = new boolean[frameCount];
+        this.hand = 0;
+    }
+
+    public void recordAccess(int frameID) {
+        referenced[frameID] = true;
+    }
+
+    public void reset(int frameID) {
+        referenced[frameID] = false;
+    }
+
+    public int selectVictim(int[] pinCounts) {
+        // Two sweeps clear every reference bit, so a third sweep without a victim means all frames are pinned
+        for (int step = 0; step < 3 * referenced.length; step++) {
+            int frameID = hand;
+            hand = (hand + 1) % referenced.length;
+
+            if (pinCounts[frameID] > 0) {
+                continue;
+            }
+            if (referenced[frameID]) {
+                referenced[frameID] = false;
+                continue;
+            }
+            return frameID;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,38 @@
+package storage;
+
+public enum Column {
+    // Fixed-width encoding of a record, in the order the fields are laid out
+    GAME_DATE_EST(8),
+    TEAM_ID_home(4),
+    PTS_home(4),
+    FG_PCT_home(4),
+    FT_PCT_home(4),
+    FG3_PCT_home(4),
+    AST_home(4),
+    REB_home(4),
+    HOME_TEAM_WINS(1);
+
+    public final int width;
+    public final int offset;
+
+    Column(int width) {
+        this.width = width;
+        this.offset = Offsets.next(width);
+    }
+
+    public boolean isFloat() {
+        return this == FG_PCT_home || this == FT_PCT_home || this == FG3_PCT_home;
+    }
+
+    // Enum constants cannot read static fields of their own enum in the constructor,
+    // so the running offset is kept in a nested holder class
+    private static class Offsets {
+        private static int position = 0;
+
+        private static int next(int width) {
+            int offset = position;
+            position += width;
+            return offset;
+        }
+    }
+}
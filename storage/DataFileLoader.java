@@ -0,0 +1,236 @@
+package storage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class DataFileLoader {
+    // Parses the tab-separated data file into records in their row format (see Block.insertRowAt)
+    // The file is cut into chunks at line boundaries and the chunks are parsed in parallel straight
+    // from their bytes, no String is created per line or per field
+    // Parsed chunks are handed to the consumer one at a time and in file order
+    private static final byte TAB = '\t';
+    private static final byte NEWLINE = '\n';
+    private static final float[] POWERS_OF_TEN = { 1f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f };
+    private static final int MAX_EXACT_FLOAT_MANTISSA = 1 << 24;
+
+    private final String path;
+    private final int threadCount;
+    private final int chunkSize;
+
+    public interface RowConsumer {
+        // rows holds count records in their row format, back to back from position 0
+        void accept(ByteBuffer rows, int count) throws Exception;
+    }
+
+    public DataFileLoader(String path, int threadCount, int chunkSize) {
+        this.path = path;
+        this.threadCount = threadCount;
+        this.chunkSize = chunkSize;
+    }
+
+    public long load(RowConsumer consumer) throws Exception {
+        // Return the number of records loaded
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        long loaded = 0;
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            // The first line holds the column names
+            long start = nextLineStart(channel, 0, size);
+
+            while (start < size || !pending.isEmpty()) {
+                // Keep a bounded number of chunks in flight so memory use does not grow with the file
+                while (start < size && pending.size() < 2 * threadCount) {
+                    long end = nextLineStart(channel, Math.min(start + chunkSize, size), size);
+                    long chunkStart = start;
+                    pending.add(executor.submit(() -> parseChunk(channel, chunkStart, (int) (end - chunkStart))));
+                    start = end;
+                }
+
+                Chunk chunk = pending.poll().get();
+                consumer.accept(chunk.rows, chunk.count);
+                loaded += chunk.count;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return loaded;
+    }
+
+    private static class Chunk {
+        ByteBuffer rows;
+        int count;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        // Return the position just after the first newline at or after position, or size if there is none
+        if (position == 0 && size == 0) {
+            return 0;
+        }
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long current = position > 0 ? position - 1 : 0;
+        while (current < size) {
+            probe.clear();
+            int read = channel.read(probe, current);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == NEWLINE) {
+                    return current + i + 1;
+                }
+            }
+            current += read;
+        }
+        return size;
+    }
+
+    private static Chunk parseChunk(FileChannel channel, long start, int length) throws IOException {
+        ByteBuffer input = ByteBuffer.allocate(length);
+        while (input.hasRemaining()) {
+            if (channel.read(input, start + input.position()) < 0) {
+                break;
+            }
+        }
+        byte[] bytes = input.array();
+
+        Chunk chunk = new Chunk();
+        chunk.rows = ByteBuffer.allocate(Math.max(16, length / 40) * Record.size);
+        int[] fieldStarts = new int[Column.values().length + 1];
+
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && bytes[lineEnd] != NEWLINE) {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+
+            // Locate the fields, fieldStarts[i + 1] - 1 is the end of field i
+            // Anything after the last field, such as a trailing tab, is ignored
+            int fieldCount = 0;
+            fieldStarts[0] = lineStart;
+            int i = lineStart;
+            for (; i < lineEnd && fieldCount < Column.values().length - 1; i++) {
+                if (bytes[i] == TAB) {
+                    fieldStarts[++fieldCount] = i + 1;
+                }
+            }
+            while (i < lineEnd && bytes[i] != TAB) {
+                i++;
+            }
+            fieldStarts[++fieldCount] = i + 1;
+
+            // Ignore row if some fields are empty
+            if (fieldCount == Column.values().length && fieldStarts[3] - fieldStarts[2] > 1) {
+                if (chunk.rows.capacity() < (chunk.count + 1) * Record.size) {
+                    ByteBuffer grown = ByteBuffer.allocate(chunk.rows.capacity() * 2);
+                    grown.put(0, chunk.rows, 0, chunk.count * Record.size);
+                    chunk.rows = grown;
+                }
+                parseLine(bytes, fieldStarts, chunk.rows, chunk.count * Record.size);
+                chunk.count++;
+            }
+            lineStart = next;
+        }
+        return chunk;
+    }
+
+    private static void parseLine(byte[] bytes, int[] fieldStarts, ByteBuffer rows, int position) {
+        // Fields: GAME_DATE_EST TEAM_ID_home PTS_home FG_PCT_home FT_PCT_home FG3_PCT_home AST_home REB_home HOME_TEAM_WINS
+        parseDate(bytes, fieldStarts[0], fieldStarts[1] - 1, rows, position + Column.GAME_DATE_EST.offset);
+        rows.putInt(position + Column.TEAM_ID_home.offset, parseInt(bytes, fieldStarts[1], fieldStarts[2] - 1));
+        rows.putInt(position + Column.PTS_home.offset, parseInt(bytes, fieldStarts[2], fieldStarts[3] - 1));
+        rows.putFloat(position + Column.FG_PCT_home.offset, parseFloat(bytes, fieldStarts[3], fieldStarts[4] - 1));
+        rows.putFloat(position + Column.FT_PCT_home.offset, parseFloat(bytes, fieldStarts[4], fieldStarts[5] - 1));
+        rows.putFloat(position + Column.FG3_PCT_home.offset, parseFloat(bytes, fieldStarts[5], fieldStarts[6] - 1));
+        rows.putInt(position + Column.AST_home.offset, parseInt(bytes, fieldStarts[6], fieldStarts[7] - 1));
+        rows.putInt(position + Column.REB_home.offset, parseInt(bytes, fieldStarts[7], fieldStarts[8] - 1));
+        rows.put(position + Column.HOME_TEAM_WINS.offset, (byte) (bytes[fieldStarts[8]] != '0' ? 1 : 0));
+    }
+
+    private static void parseDate(byte[] bytes, int start, int end, ByteBuffer rows, int position) {
+        // Date D/M/YYYY to the fixed format DDMMYYYY
+        int day = 0;
+        int month = 0;
+        int year = 0;
+        int part = 0;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == '/') {
+                part++;
+            } else if (part == 0) {
+                day = day * 10 + bytes[i] - '0';
+            } else if (part == 1) {
+                month = month * 10 + bytes[i] - '0';
+            } else {
+                year = year * 10 + bytes[i] - '0';
+            }
+        }
+
+        rows.put(position, (byte) ('0' + day / 10));
+        rows.put(position + 1, (byte) ('0' + day % 10));
+        rows.put(position + 2, (byte) ('0' + month / 10));
+        rows.put(position + 3, (byte) ('0' + month % 10));
+        for (int i = 7; i >= 4; i--) {
+            rows.put(position + i, (byte) ('0' + year % 10));
+            year /= 10;
+        }
+    }
+
+    private static int parseInt(byte[] bytes, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Empty integer field");
+        }
+        boolean negative = bytes[start] == '-';
+        int value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid integer field: " + new String(bytes, start, end - start));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static float parseFloat(byte[] bytes, int start, int end) {
+        // Plain decimals with up to 9 fractional digits and a mantissa below 2^24 are exact as floats,
+        // so a single float division gives the same correctly rounded result as Float.parseFloat
+        boolean negative = start < end && bytes[start] == '-';
+        long mantissa = 0;
+        int scale = -1;
+        boolean exact = start < end;
+        for (int i = negative ? start + 1 : start; i < end && exact; i++) {
+            byte b = bytes[i];
+            if (b == '.' && scale < 0) {
+                scale = 0;
+            } else if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + b - '0';
+                if (scale >= 0) {
+                    scale++;
+                }
+                exact = mantissa < MAX_EXACT_FLOAT_MANTISSA && scale < POWERS_OF_TEN.length;
+            } else {
+                exact = false;
+            }
+        }
+
+        if (!exact) {
+            // Exponents, long mantissas and malformed input take the slow path
+            return Float.parseFloat(new String(bytes, start, end - start));
+        }
+        float value = (float) mantissa / POWERS_OF_TEN[Math.max(scale, 0)];
+        return negative ? -value : value;
+    }
+}
@@ -1,82 +1,553 @@
 package storage;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
 
 import config.Const;
 
 public class Disk {
     public static final int maxBlockSize = (int) Math.floor(Const.DISK_CAPACITY / Const.BLOCK_SIZE);
 
-    int blockCount;
+    // Database file layout: a header page followed by the blocks, mapped in fixed-size segments
+    // Header page: [magic (4B)][version (4B)][number of allocated blocks (4B)][block layout (4B)]
+    private static final int FILE_MAGIC = 0x435A4442; // "CZDB"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_BLOCK_COUNT_OFFSET = 8;
+    private static final int HEADER_LAYOUT_OFFSET = 12;
+    private static final int SEGMENT_BLOCKS = 2500; // 1MB per mapped segment with 400B blocks
+
     int recordCount;
+    BlockLayout layout;
 
     ArrayList<Block> blocks;
-    Set<Integer> candidateBlocks; // Block with free slots after deleting records
+    FreeSpaceMap freeSpaceMap; // Occupied slots of every block and the blocks with free slots
+
+    // Only set for a file-backed disk
+    // The blocks are either all mapped into memory (segments) or cached in a bounded buffer pool
+    // The segments are mapped copy-on-write: changed blocks only reach the file when flush() writes them
+    FileChannel channel;
+    ArrayList<MappedByteBuffer> segments;
+    BitSet dirtyBlocks; // Blocks of the segments changed since the last flush
+    BufferPool bufferPool;
+    ByteBuffer header;
+
+    // Only set once a write-ahead log is attached, every mutation is logged before it is applied
+    WriteAheadLog log;
+
+    // Told about every record inserted or deleted from now on, typically secondary indexes
+    ArrayList<RecordListener> listeners;
 
     public Disk() {
-        this.blockCount = 0;
+        this(Const.PAX_BLOCK_LAYOUT ? BlockLayout.PAX : BlockLayout.NSM);
+    }
+
+    public Disk(BlockLayout layout) {
         this.recordCount = 0;
+        this.layout = layout;
 
         this.blocks = new ArrayList<>();
-        this.candidateBlocks = new HashSet<>();
+        this.freeSpaceMap = new FreeSpaceMap(maxBlockSize);
+        this.listeners = new ArrayList<>();
+    }
+
+    public static Disk open(String path) throws Exception {
+        return open(path, Const.PAX_BLOCK_LAYOUT ? BlockLayout.PAX : BlockLayout.NSM, Const.BUFFER_POOL_FRAMES,
+                Const.BUFFER_POOL_LRU_K);
+    }
+
+    public static Disk open(String path, BlockLayout layout, int bufferPoolFrames, int lruK) throws Exception {
+        // Open a file-backed disk, creating the file with the given layout if it does not exist yet
+        // With bufferPoolFrames = 0 the whole file is memory-mapped, otherwise at most that many blocks
+        // are kept in memory and the others are read from the file on demand
+        Disk disk = new Disk(layout);
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        boolean isNew = file.length() == 0;
+
+        disk.channel = file.getChannel();
+        if (bufferPoolFrames > 0) {
+            disk.blocks = null;
+            disk.header = ByteBuffer.allocate(Const.BLOCK_SIZE);
+            disk.readPages(0, 1, disk.header);
+        } else {
+            disk.segments = new ArrayList<>();
+            disk.dirtyBlocks = new BitSet();
+            disk.header = disk.mapSegment(0).slice(0, Const.BLOCK_SIZE);
+        }
+
+        if (isNew) {
+            disk.header.putInt(0, FILE_MAGIC);
+            disk.header.putInt(4, FILE_VERSION);
+            disk.header.putInt(HEADER_BLOCK_COUNT_OFFSET, 0);
+            disk.header.putInt(HEADER_LAYOUT_OFFSET, layout.ordinal());
+        } else if (disk.header.getInt(0) != FILE_MAGIC || disk.header.getInt(4) != FILE_VERSION) {
+            disk.close();
+            throw new Exception("Not a database file: " + path);
+        }
+
+        disk.layout = BlockLayout.values()[disk.header.getInt(HEADER_LAYOUT_OFFSET)];
+        if (bufferPoolFrames > 0) {
+            disk.bufferPool = new BufferPool(disk.channel, Const.BLOCK_SIZE, disk.layout, bufferPoolFrames,
+                    maxBlockSize, BufferPool.createPolicy(bufferPoolFrames, lruK));
+        }
+        disk.loadFreeSpaceMap(disk.header.getInt(HEADER_BLOCK_COUNT_OFFSET));
+        return disk;
+    }
+
+    private void loadFreeSpaceMap(int allocatedBlocks) throws IOException {
+        // Rebuild the in-memory counters and the free space map from the slot directories
+        // A buffer-pooled disk reads the file sequentially here, without going through the pool
+        ByteBuffer chunk = bufferPool == null ? null : ByteBuffer.allocate(SEGMENT_BLOCKS * Const.BLOCK_SIZE);
+
+        for (int blockID = 0; blockID < allocatedBlocks; blockID++) {
+            Block block;
+            if (bufferPool == null) {
+                block = new Block(pageBuffer(blockID), layout);
+                blocks.add(block);
+            } else {
+                int index = blockID % SEGMENT_BLOCKS;
+                if (index == 0) {
+                    readPages(blockID + 1, Math.min(SEGMENT_BLOCKS, allocatedBlocks - blockID), chunk);
+                }
+                block = new Block(chunk.slice(index * Const.BLOCK_SIZE, Const.BLOCK_SIZE), layout);
+            }
+
+            freeSpaceMap.addBlock();
+            for (int offset = 0; offset < Block.maxRecordCount; offset++) {
+                if (block.isOccupied(offset)) {
+                    freeSpaceMap.markSlot(blockID, offset);
+                }
+            }
+            recordCount += block.getRecordCount();
+        }
+    }
+
+    public boolean isFileBacked() {
+        return this.channel != null;
+    }
+
+    public BufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
+    public void setLog(WriteAheadLog log) {
+        // With a buffer pool, the log is also forced before any dirty block is written back
+        // A memory-mapped disk writes its changed blocks in flush() only, which a checkpoint calls once the log
+        // is forced, so the file never gets ahead of the log either
+        this.log = log;
+        if (bufferPool != null) {
+            bufferPool.setLog(log);
+        }
+    }
+
+    public void redo(LogRecord entry) throws Exception {
+        // Reapply a logged insertion or deletion, applying the same entry twice has no further effect
+        if (entry.type == LogRecord.DISK_INSERT) {
+            while (freeSpaceMap.getBlockCount() <= entry.blockID) {
+                int blockID = freeSpaceMap.addBlock();
+                allocateBlock(blockID);
+                unpinBlock(blockID, true);
+            }
+
+            Block block = pinBlock(entry.blockID);
+            if (block.isOccupied(entry.offset)) {
+                block.deleteRecordAt(entry.offset);
+            } else {
+                freeSpaceMap.markSlot(entry.blockID, entry.offset);
+                recordCount++;
+            }
+            block.insertRowAt(entry.offset, entry.row, entry.rowPosition);
+            unpinBlock(entry.blockID, true);
+        } else if (entry.type == LogRecord.DISK_DELETE) {
+            if (entry.blockID >= freeSpaceMap.getBlockCount()) {
+                return;
+            }
+
+            Block block = pinBlock(entry.blockID);
+            if (block.isOccupied(entry.offset)) {
+                block.deleteRecordAt(entry.offset);
+                freeSpaceMap.freeSlot(entry.blockID, entry.offset);
+                recordCount--;
+            }
+            unpinBlock(entry.blockID, true);
+        } else if (entry.type == LogRecord.DISK_TRUNCATE) {
+            // Records still found past the new end are only there because the file is ahead of the log,
+            // any of them that survived the truncation is reinserted by a later log record
+            for (int blockID = entry.blockID; blockID < freeSpaceMap.getBlockCount(); blockID++) {
+                Block block = pinBlock(blockID);
+                for (int offset = 0; offset < Block.maxRecordCount; offset++) {
+                    if (block.isOccupied(offset)) {
+                        block.deleteRecordAt(offset);
+                        freeSpaceMap.freeSlot(blockID, offset);
+                        recordCount--;
+                    }
+                }
+                unpinBlock(blockID, true);
+            }
+            truncate(entry.blockID);
+        }
+    }
+
+    public void flush() throws IOException {
+        // Write the blocks of a file-backed disk to the storage device
+        if (segments != null) {
+            for (int blockID = dirtyBlocks.nextSetBit(0); blockID >= 0; blockID = dirtyBlocks.nextSetBit(blockID + 1)) {
+                if (blockID < freeSpaceMap.getBlockCount()) {
+                    ByteBuffer source = pageBuffer(blockID);
+                    long position = (long) (blockID + 1) * Const.BLOCK_SIZE;
+                    while (source.hasRemaining()) {
+                        channel.write(source, position + source.position());
+                    }
+                }
+            }
+            dirtyBlocks.clear();
+        }
+        if (bufferPool != null) {
+            bufferPool.flush();
+        }
+        if (channel != null) {
+            ByteBuffer source = header.duplicate();
+            source.clear();
+            while (source.hasRemaining()) {
+                channel.write(source, source.position());
+            }
+            channel.force(false);
+        }
+    }
+
+    public void close() throws IOException {
+        if (channel != null) {
+            flush();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    public Disk copy() throws Exception {
+        // Deep copy of the blocks into a new in-memory disk
+        Disk copy = new Disk(layout);
+        for (int blockID = 0; blockID < freeSpaceMap.getBlockCount(); blockID++) {
+            Block block = pinBlock(blockID);
+            Block newBlock = new Block(layout);
+            try {
+                newBlock.buffer.put(0, block.buffer, 0, Const.BLOCK_SIZE);
+            } finally {
+                unpinBlock(blockID, false);
+            }
+            copy.blocks.add(newBlock);
+        }
+        copy.recordCount = this.recordCount;
+        copy.freeSpaceMap = this.freeSpaceMap.copy();
+        return copy;
+    }
+
+    //Visibility: Package
+    Block pinBlock(int blockID) throws IOException {
+        // Every block access goes through pinBlock/unpinBlock, which only matters for a buffer-pooled disk
+        if (bufferPool != null) {
+            return bufferPool.pin(blockID);
+        }
+        return blocks.get(blockID);
+    }
+
+    //Visibility: Package
+    void unpinBlock(int blockID, boolean dirty) {
+        if (bufferPool != null) {
+            bufferPool.unpin(blockID, dirty);
+        } else if (dirty && dirtyBlocks != null) {
+            dirtyBlocks.set(blockID);
+        }
+    }
+
+    private void truncate(int blockCount) throws IOException {
+        // Release the empty blocks from blockCount on
+        if (blockCount >= freeSpaceMap.getBlockCount()) {
+            return;
+        }
+        freeSpaceMap.truncate(blockCount);
+        if (blocks != null) {
+            blocks.subList(blockCount, blocks.size()).clear();
+        }
+        if (channel != null) {
+            header.putInt(HEADER_BLOCK_COUNT_OFFSET, blockCount);
+        }
+        if (bufferPool != null) {
+            // Mapped segments cannot shrink, a memory-mapped file keeps its size and reuses the pages later
+            bufferPool.discard(blockCount);
+            channel.truncate((long) (blockCount + 1) * Const.BLOCK_SIZE);
+        }
+    }
+
+    private Block allocateBlock(int blockID) throws IOException {
+        // Append a new block and return it pinned
+        if (channel == null) {
+            Block block = new Block(layout);
+            blocks.add(block);
+            return block;
+        }
+
+        header.putInt(HEADER_BLOCK_COUNT_OFFSET, blockID + 1);
+        if (bufferPool != null) {
+            return bufferPool.pinNew(blockID);
+        }
+        Block block = new Block(pageBuffer(blockID), layout);
+        blocks.add(block);
+        return block;
+    }
+
+    private void readPages(int page, int pageCount, ByteBuffer buffer) throws IOException {
+        // Read consecutive pages of the file, zero-filling anything past its end
+        ByteBuffer target = buffer.duplicate();
+        target.clear().limit(pageCount * Const.BLOCK_SIZE);
+        long position = (long) page * Const.BLOCK_SIZE;
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                while (target.hasRemaining()) {
+                    target.put((byte) 0);
+                }
+            }
+        }
+    }
+
+    private ByteBuffer pageBuffer(int blockID) {
+        // Page 0 of the file is the header, block i is stored in page i + 1
+        int page = blockID + 1;
+        MappedByteBuffer segment = mapSegment(page / SEGMENT_BLOCKS);
+        return segment.slice((page % SEGMENT_BLOCKS) * Const.BLOCK_SIZE, Const.BLOCK_SIZE);
+    }
+
+    private MappedByteBuffer mapSegment(int segmentID) {
+        try {
+            while (segments.size() <= segmentID) {
+                // A private mapping does not grow the file, the whole segment must be in it before it is mapped
+                long position = (long) segments.size() * SEGMENT_BLOCKS * Const.BLOCK_SIZE;
+                long end = position + (long) SEGMENT_BLOCKS * Const.BLOCK_SIZE;
+                if (channel.size() < end) {
+                    channel.write(ByteBuffer.allocate(1), end - 1);
+                }
+                segments.add(channel.map(FileChannel.MapMode.PRIVATE, position,
+                        (long) SEGMENT_BLOCKS * Const.BLOCK_SIZE));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to map database file", e);
+        }
+        return segments.get(segmentID);
+    }
+
+    public BlockLayout getLayout() {
+        return this.layout;
     }
 
     public int getBlockCount() {
-        return this.blockCount;
+        // Number of blocks holding at least one record
+        return freeSpaceMap.getBlockCount() - freeSpaceMap.getEmptyBlockCount();
+    }
+
+    public FreeSpaceMap getFreeSpaceMap() {
+        return this.freeSpaceMap;
     }
 
     public int getRecordCount() {
         return this.recordCount;
     }
 
-    public ArrayList<Block> getBlocks() {
-        return this.blocks;
+    public Record getRecord(Address address) throws Exception {
+        Block block = pinBlock(address.blockID);
+        try {
+            return block.getRecordAt(address.offset);
+        } finally {
+            unpinBlock(address.blockID, false);
+        }
     }
 
-    public Record getRecord(Address address) throws Exception {
-        return blocks.get(address.blockID).getRecordAt(address.offset);
+    public float getFloat(Address address, Column column) throws Exception {
+        return getFloat(address.blockID, address.offset, column);
+    }
+
+    public float getFloat(long packedAddress, Column column) throws Exception {
+        // Same with an address packed by Address.pack, as streamed from the index
+        return getFloat(Address.blockID(packedAddress), Address.offset(packedAddress), column);
+    }
+
+    private float getFloat(int blockID, int offset, Column column) throws Exception {
+        // Read a single field of a record without decoding the rest of it
+        Block block = pinBlock(blockID);
+        try {
+            if (!block.isOccupied(offset)) {
+                throw new Exception("Invalid address");
+            }
+            return block.getFloat(offset, column);
+        } finally {
+            unpinBlock(blockID, false);
+        }
     }
 
     public ArrayList<Record> getRecords(ArrayList<Address> addressList) throws Exception {
-        ArrayList<Record> recordList = new ArrayList<>();
+        // Batched fetch: the addresses are grouped by block, so every block is pinned once however the addresses
+        // are spread out, and the blocks are visited in file order with a buffer-pooled disk prefetching ahead
+        // The records are returned in the order of addressList
+        int count = addressList.size();
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (long) addressList.get(i).blockID << 32 | i;
+        }
 
-        for (Address address : addressList) {
-            recordList.add(getRecord(address));
+        Record[] records = new Record[count];
+        fetchByBlock(order, count, (block, position) ->
+                records[position] = block.getRecordAt(addressList.get(position).offset));
+        return new ArrayList<>(Arrays.asList(records));
+    }
+
+    public int getValues(long[] packedAddresses, int count, Column[] columns, int[][] values) throws Exception {
+        // Same batched fetch for single fields: values[column.ordinal()][i] is set to the field of the record at
+        // packedAddresses[i] for each of the columns, encoded as by Block.getValue
+        // Returns the number of distinct blocks read
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = packedAddresses[i] & 0xFFFFFFFF00000000L | i;
         }
-        return recordList;
+
+        return fetchByBlock(order, count, (block, position) -> {
+            int offset = Address.offset(packedAddresses[position]);
+            if (!block.isOccupied(offset)) {
+                throw new Exception("Invalid address");
+            }
+            for (Column column : columns) {
+                values[column.ordinal()][position] = block.getValue(offset, column);
+            }
+        });
     }
 
-    public Address insertRecord(Record record) throws Exception {
-        int candidateBlockID;
-        if (!candidateBlocks.isEmpty()) {
-            // If some records deleted from blocks previously
-            candidateBlockID = candidateBlocks.iterator().next();
-        } else {
-            // Else check the ArrayList of blocks
-            candidateBlockID = blocks.size() - 1;
-            if (candidateBlockID == -1 || blocks.get(candidateBlockID).isFull()) {
-                if (blocks.size() == maxBlockSize) {
-                    throw new Exception("Maximum capacity of disk reached");
+    public int readColumns(int blockID, Column[] columns, long[] packedAddresses, int[][] values, int position)
+            throws Exception {
+        // Copy the occupied slots of a block from position on: their packed addresses and the fields of the
+        // columns into values[column.ordinal()], encoded as by Block.getValue
+        // Returns the number of records copied, an empty block is skipped without reading it
+        if (freeSpaceMap.getUsedSlots(blockID) == 0) {
+            return 0;
+        }
+        Block block = pinBlock(blockID);
+        try {
+            int count = 0;
+            for (int offset = 0; offset < Block.maxRecordCount; offset++) {
+                if (freeSpaceMap.isOccupied(blockID, offset)) {
+                    packedAddresses[position + count++] = Address.pack(blockID, offset);
+                }
+            }
+            for (Column column : columns) {
+                int[] columnValues = values[column.ordinal()];
+                for (int i = 0; i < count; i++) {
+                    columnValues[position + i] = block.getValue(Address.offset(packedAddresses[position + i]), column);
+                }
+            }
+            return count;
+        } finally {
+            unpinBlock(blockID, false);
+        }
+    }
+
+    private interface SlotReader {
+        // Called with the block of the address at position
+        void read(Block block, int position) throws Exception;
+    }
+
+    private int fetchByBlock(long[] order, int count, SlotReader reader) throws Exception {
+        // order holds the block ID of each address in its high half and the position of the address in its low half
+        // It is sorted here, then every block is pinned once for all of its addresses
+        // Returns the number of blocks pinned
+        Arrays.sort(order, 0, count);
+
+        int[] blockIDs = new int[count];
+        int blockCount = 0;
+        for (int i = 0; i < count; i++) {
+            int blockID = (int) (order[i] >>> 32);
+            if (blockCount == 0 || blockIDs[blockCount - 1] != blockID) {
+                blockIDs[blockCount++] = blockID;
+            }
+        }
+
+        int next = 0;
+        for (int b = 0; b < blockCount; b++) {
+            if (b % Const.PREFETCH_BLOCKS == 0) {
+                prefetch(blockIDs, b, Math.min(b + Const.PREFETCH_BLOCKS, blockCount));
+            }
+            int blockID = blockIDs[b];
+            Block block = pinBlock(blockID);
+            try {
+                for (; next < count && (int) (order[next] >>> 32) == blockID; next++) {
+                    reader.read(block, (int) order[next]);
                 }
-                Block newBlock = new Block();
-                blocks.add(newBlock);
-                blockCount++;
-                candidateBlockID = blocks.size() - 1;
+            } finally {
+                unpinBlock(blockID, false);
             }
         }
+        return blockCount;
+    }
+
+    public void prefetch(int[] blockIDs, int from, int to) throws IOException {
+        // Hint that the blocks blockIDs[from, to), sorted and distinct, are about to be read
+        // Only a buffer-pooled disk acts on it, memory-mapped blocks are paged in by the operating system
+        if (bufferPool != null) {
+            bufferPool.prefetch(blockIDs, from, to);
+        }
+    }
 
-        Block candidateBlock = blocks.get(candidateBlockID);
-        int offset = candidateBlock.insertRecord(record);
+    public Address insertRecord(Record record) throws Exception {
+        return insert(record, null, 0);
+    }
+
+    public Address insertRow(ByteBuffer row, int position) throws Exception {
+        // Insert a record given in its row format, as produced by DataFileLoader
+        return insert(null, row, position);
+    }
+
+    private Address insert(Record record, ByteBuffer row, int position) throws Exception {
+        // Reuse the lowest block with a free slot, including slots freed by deletions,
+        // otherwise append a new block
+        int candidateBlockID = freeSpaceMap.findBlockWithSpace();
+        Block candidateBlock;
+        if (candidateBlockID == -1) {
+            if (freeSpaceMap.getBlockCount() == maxBlockSize) {
+                throw new Exception("Maximum capacity of disk reached");
+            }
+            candidateBlockID = freeSpaceMap.addBlock();
+            candidateBlock = allocateBlock(candidateBlockID);
+        } else {
+            candidateBlock = pinBlock(candidateBlockID);
+        }
+
+        Address address;
+        try {
+            int offset = freeSpaceMap.allocateSlot(candidateBlockID);
+            if (record != null) {
+                candidateBlock.insertRecordAt(offset, record);
+            } else {
+                candidateBlock.insertRowAt(offset, row, position);
+            }
+            // Logged while the block is still pinned, so it cannot be written back before its log record
+            if (log != null) {
+                log.logInsert(candidateBlockID, offset, candidateBlock);
+            }
+            address = new Address(candidateBlockID, offset);
+            for (RecordListener listener : listeners) {
+                listener.recordInserted(candidateBlock, address);
+            }
+        } finally {
+            unpinBlock(candidateBlockID, true);
+        }
         recordCount++;
 
-        // Update candidateBlocks
-        if (candidateBlock.isFull()) {
-            candidateBlocks.remove(candidateBlockID);
+        if (log != null) {
+            log.commit();
         }
 
-        return new Address(candidateBlockID, offset);
+        return address;
     }
 
     public void deleteRecord(ArrayList<Address> addressList) throws Exception {
@@ -84,72 +555,123 @@ public class Disk {
             int blockID = address.blockID;
             int offset = address.offset;
 
-            boolean emptiedAfterDeletion = blocks.get(blockID).deleteRecordAt(offset);
+            Block block = pinBlock(blockID);
+            try {
+                // The listeners still see the record, it is only logged and deleted once they all succeeded
+                for (RecordListener listener : listeners) {
+                    listener.recordDeleted(block, address);
+                }
+                if (log != null) {
+                    log.logDelete(blockID, offset);
+                }
+                block.deleteRecordAt(offset);
+            } finally {
+                unpinBlock(blockID, true);
+            }
+            freeSpaceMap.freeSlot(blockID, offset);
             recordCount--;
-            candidateBlocks.add(blockID);
+        }
 
-            if (emptiedAfterDeletion) {
-                blockCount--;
-            }
+        if (log != null) {
+            log.commit();
         }
     }
 
-    public ArrayList<Record> linearScan(float key) {
-
-        System.out.println("\nBrute-force Linear Scan");
-        System.out.println("------------------------------------------------------------------");
-
-        int blockAccess = 0;
-        ArrayList<Record> recordList = new ArrayList<>();
-
-        for (Block block : blocks) {
-            // Ignore empty blocks
-            if (block.isEmpty()) {
-                continue;
+    public int compact(Relocator relocator) throws Exception {
+        // Move the records of the last blocks into the free slots of the first ones until every block
+        // before the last is full, then release the blocks left empty at the end
+        // The relocator is told about every move, so that indexes can point to the new address
+        ByteBuffer row = ByteBuffer.allocate(Record.size);
+        int moved = 0;
+        int source = freeSpaceMap.getBlockCount() - 1;
+
+        while (true) {
+            while (source >= 0 && freeSpaceMap.getUsedSlots(source) == 0) {
+                source--;
+            }
+            int target = freeSpaceMap.findBlockWithSpace();
+            if (source < 0 || target == -1 || target >= source) {
+                break;
             }
 
-            blockAccess++;
-            Record[] records = block.getRecords();
+            Block sourceBlock = pinBlock(source);
+            Block targetBlock = pinBlock(target);
+            for (int offset = 0; offset < Block.maxRecordCount; offset++) {
+                if (!freeSpaceMap.isOccupied(source, offset)) {
+                    continue;
+                }
+                int newOffset = freeSpaceMap.allocateSlot(target);
+                Address from = new Address(source, offset);
+                Address to = new Address(target, newOffset);
+                sourceBlock.readRow(offset, row, 0);
+                targetBlock.insertRowAt(newOffset, row, 0);
+                for (RecordListener listener : listeners) {
+                    listener.recordDeleted(sourceBlock, from);
+                    listener.recordInserted(targetBlock, to);
+                }
+                sourceBlock.deleteRecordAt(offset);
+                freeSpaceMap.freeSlot(source, offset);
 
-            for (Record record : records) {
-                if (record != null && record.FG_PCT_home == key) {
-                    recordList.add(record);
+                // Both blocks are still pinned, they cannot be written back before the log records
+                if (log != null) {
+                    log.logInsert(target, newOffset, targetBlock);
+                    log.logDelete(source, offset);
+                }
+                relocator.recordMoved(targetBlock, newOffset, from, to);
+                if (log != null) {
+                    log.commit();
                 }
+                moved++;
 
+                if (freeSpaceMap.getUsedSlots(target) == Block.maxRecordCount) {
+                    break;
+                }
             }
+            unpinBlock(target, true);
+            unpinBlock(source, true);
         }
 
-        System.out.printf("The number of data blocks accessed: %d\n", blockAccess);
-
-        return recordList;
+        if (log != null) {
+            log.logTruncate(source + 1);
+        }
+        truncate(source + 1);
+        if (log != null) {
+            log.commit();
+        }
+        return moved;
     }
 
-    public ArrayList<Record> linearScan(float lowerBound, float upperBound) {
-        System.out.println("\nBrute-force Linear Scan (Range)");
-        System.out.println("------------------------------------------------------------------");
-
-        int blockAccess = 0;
-        ArrayList<Record> recordList = new ArrayList<>();
+    public interface Relocator {
+        void recordMoved(Block block, int offset, Address from, Address to) throws Exception;
+    }
 
-        for (Block block : blocks) {
-            // Ignore empty blocks
-            if (block.isEmpty()) {
+    public void addRecordListener(RecordListener listener) throws Exception {
+        // Attach a listener and hand it every record already stored, so an index declared at any time
+        // is built from the current contents and then kept up to date
+        // Redo does not notify the listeners, they are meant to be attached once recovery is done
+        for (int blockID = 0; blockID < freeSpaceMap.getBlockCount(); blockID++) {
+            if (freeSpaceMap.getUsedSlots(blockID) == 0) {
                 continue;
             }
-
-            blockAccess++;
-            Record[] records = block.getRecords();
-
-            for (Record record : records) {
-                if (record != null && record.FG_PCT_home >= lowerBound && record.FG_PCT_home <= upperBound) {
-                    recordList.add(record);
+            Block block = pinBlock(blockID);
+            try {
+                for (int offset = 0; offset < Block.maxRecordCount; offset++) {
+                    if (freeSpaceMap.isOccupied(blockID, offset)) {
+                        listener.recordInserted(block, new Address(blockID, offset));
+                    }
                 }
+            } finally {
+                unpinBlock(blockID, false);
             }
         }
+        listeners.add(listener);
+    }
 
-        System.out.printf("The number of data blocks accessed: %d\n", blockAccess);
+    public interface RecordListener {
+        // The block is pinned during the call and the record can be read from it at address.offset
+        void recordInserted(Block block, Address address) throws Exception;
 
-        return recordList;
+        void recordDeleted(Block block, Address address) throws Exception;
     }
 
     public void linearScanDeletion(float upperBound) throws Exception {
@@ -158,29 +680,77 @@ public class Disk {
 
         int blockAccess = 0;
         ArrayList<Address> addressList = new ArrayList<>();
+        float[] values = new float[Block.maxRecordCount];
 
-        for (int blockID = 0; blockID < blocks.size(); blockID++) {
-            Block block = blocks.get(blockID);
-            // Ignore empty blocks
-            if (block.isEmpty()) {
+        for (int blockID = 0; blockID < freeSpaceMap.getBlockCount(); blockID++) {
+            // Ignore empty blocks, they are known from the free space map without reading them
+            if (freeSpaceMap.getUsedSlots(blockID) == 0) {
                 continue;
             }
+            Block block = pinBlock(blockID);
+            try {
+                blockAccess++;
+                block.getFloats(Column.FG_PCT_home, values);
+
+                for (int offset = 0; offset < Block.maxRecordCount; offset++) {
+                    if (values[offset] <= upperBound && block.isOccupied(offset)) {
+                        Address address = new Address(blockID, offset);
+                        addressList.add(address);
+                    }
+                }
+            } finally {
+                unpinBlock(blockID, false);
+            }
+        }
 
-            blockAccess++;
-            Record[] records = block.getRecords();
+        deleteRecord(addressList);
+        System.out.printf("The number of data blocks accessed: %d\n", blockAccess);
+    }
 
-            int count = 0;
+    public void parallelLinearScanDeletion(float upperBound) throws Exception {
+        System.out.println("\nParallel Linear Scan (Delete)");
+        System.out.println("------------------------------------------------------------------");
+        // Only the search runs in parallel, the matching records are deleted afterwards
+        Column[] columns = { Column.FG_PCT_home };
+        int blockCount = freeSpaceMap.getBlockCount();
+        int roundBlocks = Math.min(Const.PARALLEL_SCAN_BLOCKS, blockCount);
+        long[] packedAddresses = new long[roundBlocks * Block.maxRecordCount];
+        int[][] values = new int[Column.values().length][];
+        int[] keys = values[Column.FG_PCT_home.ordinal()] = new int[packedAddresses.length];
+        int[] rowCounts = new int[roundBlocks];
 
-            for (Record record : records) {
-                if (record != null && record.FG_PCT_home <= upperBound) {
-                    Address address = new Address(blockID, count);
-                    addressList.add(address);
+        int blockAccess = 0;
+        ArrayList<Address> addressList = new ArrayList<>();
+        for (int fromBlockID = 0; fromBlockID < blockCount; fromBlockID += roundBlocks) {
+            int toBlockID = Math.min(fromBlockID + roundBlocks, blockCount);
+            blockAccess += parallelReadColumns(fromBlockID, toBlockID, columns, packedAddresses, values, rowCounts);
+            for (int i = 0; i < toBlockID - fromBlockID; i++) {
+                for (int row = i * Block.maxRecordCount; row < i * Block.maxRecordCount + rowCounts[i]; row++) {
+                    if (Float.intBitsToFloat(keys[row]) <= upperBound) {
+                        addressList.add(Address.unpack(packedAddresses[row]));
+                    }
                 }
-                count++;
             }
         }
 
         deleteRecord(addressList);
         System.out.printf("The number of data blocks accessed: %d\n", blockAccess);
     }
-}
\ No newline at end of file
+
+    public int parallelReadColumns(int fromBlockID, int toBlockID, Column[] columns, long[] packedAddresses,
+            int[][] values, int[] rowCounts) {
+        // readColumns for every block of [fromBlockID, toBlockID), with the blocks split into ranges read on the
+        // common fork/join pool
+        // Block b is copied from position (b - fromBlockID) * Block.maxRecordCount on and its number of records goes
+        // to rowCounts[b - fromBlockID]. Returns the number of blocks read, empty blocks are skipped
+        ForkJoinPool.commonPool().invoke(new ScanTask(this, fromBlockID, fromBlockID, toBlockID, columns,
+                packedAddresses, values, rowCounts));
+        int blockAccess = 0;
+        for (int i = 0; i < toBlockID - fromBlockID; i++) {
+            if (rowCounts[i] > 0) {
+                blockAccess++;
+            }
+        }
+        return blockAccess;
+    }
+}
@@ -0,0 +1,12 @@
+package storage;
+
+public interface EvictionPolicy {
+    // Called every time a frame is pinned, including right after a page is loaded into it
+    void recordAccess(int frameID);
+
+    // Called when a frame is emptied so that its history can be dropped
+    void reset(int frameID);
+
+    // Return an unpinned frame to evict, or -1 if every frame is pinned
+    int selectVictim(int[] pinCounts);
+}
@@ -0,0 +1,171 @@
+package storage;
+
+public class FreeSpaceMap {
+    // Occupancy bitmap of every block, wordsPerBlock longs per block, bit i set if slot i is used
+    // freeBlocks has bit b set if block b has a free slot, and summary has bit w set if
+    // freeBlocks[w] is non-zero, so the first block with space is found with two bit scans
+    private final int wordsPerBlock;
+    private final long[] occupancy;
+    private final long[] freeBlocks;
+    private final long[] summary;
+    private final int[] usedSlots;
+
+    private int blockCount;
+    private int usedSlotCount;
+    private int emptyBlockCount;
+    private int partialBlockCount;
+
+    public FreeSpaceMap(int maxBlocks) {
+        // All arrays are sized for the disk capacity up front, so no operation allocates
+        this.wordsPerBlock = (Block.maxRecordCount + 63) >>> 6;
+        this.occupancy = new long[maxBlocks * wordsPerBlock];
+        this.freeBlocks = new long[(maxBlocks + 63) >>> 6];
+        this.summary = new long[(freeBlocks.length + 63) >>> 6];
+        this.usedSlots = new int[maxBlocks];
+    }
+
+    public FreeSpaceMap copy() {
+        FreeSpaceMap copy = new FreeSpaceMap(usedSlots.length);
+        System.arraycopy(occupancy, 0, copy.occupancy, 0, occupancy.length);
+        System.arraycopy(freeBlocks, 0, copy.freeBlocks, 0, freeBlocks.length);
+        System.arraycopy(summary, 0, copy.summary, 0, summary.length);
+        System.arraycopy(usedSlots, 0, copy.usedSlots, 0, usedSlots.length);
+        copy.blockCount = blockCount;
+        copy.usedSlotCount = usedSlotCount;
+        copy.emptyBlockCount = emptyBlockCount;
+        copy.partialBlockCount = partialBlockCount;
+        return copy;
+    }
+
+    public int addBlock() {
+        // Track a newly allocated, empty block and return its ID
+        int blockID = blockCount++;
+        emptyBlockCount++;
+        setFree(blockID, true);
+        return blockID;
+    }
+
+    public void truncate(int newBlockCount) {
+        // Forget the blocks from newBlockCount on, which must all be empty
+        for (int blockID = newBlockCount; blockID < blockCount; blockID++) {
+            if (usedSlots[blockID] != 0) {
+                throw new IllegalStateException("Block " + blockID + " is not empty");
+            }
+            emptyBlockCount--;
+            setFree(blockID, false);
+        }
+        blockCount = Math.min(blockCount, newBlockCount);
+    }
+
+    public int findBlockWithSpace() {
+        // Return the lowest block ID with a free slot, or -1 if every block is full
+        for (int i = 0; i < summary.length; i++) {
+            if (summary[i] != 0) {
+                int word = (i << 6) + Long.numberOfTrailingZeros(summary[i]);
+                return (word << 6) + Long.numberOfTrailingZeros(freeBlocks[word]);
+            }
+        }
+        return -1;
+    }
+
+    public int allocateSlot(int blockID) {
+        // Mark the first free slot of the block as used and return its offset
+        int base = blockID * wordsPerBlock;
+        for (int i = 0; i < wordsPerBlock; i++) {
+            long free = ~occupancy[base + i];
+            if (free != 0) {
+                int offset = (i << 6) + Long.numberOfTrailingZeros(free);
+                if (offset >= Block.maxRecordCount) {
+                    break;
+                }
+                occupancy[base + i] |= 1L << offset;
+                updateCounts(blockID, 1);
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    public void markSlot(int blockID, int offset) {
+        // Mark a given slot as used, used when rebuilding the map from existing pages
+        occupancy[blockID * wordsPerBlock + (offset >>> 6)] |= 1L << offset;
+        updateCounts(blockID, 1);
+    }
+
+    public void freeSlot(int blockID, int offset) {
+        occupancy[blockID * wordsPerBlock + (offset >>> 6)] &= ~(1L << offset);
+        updateCounts(blockID, -1);
+    }
+
+    public boolean isOccupied(int blockID, int offset) {
+        return (occupancy[blockID * wordsPerBlock + (offset >>> 6)] & (1L << offset)) != 0;
+    }
+
+    public int getUsedSlots(int blockID) {
+        return usedSlots[blockID];
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getEmptyBlockCount() {
+        return emptyBlockCount;
+    }
+
+    public int getPartialBlockCount() {
+        return partialBlockCount;
+    }
+
+    public int getFreeSlotCount() {
+        return blockCount * Block.maxRecordCount - usedSlotCount;
+    }
+
+    public double getFragmentation() {
+        // Fraction of allocated slots that are free but not in the last block,
+        // i.e. space that appending records would never reuse
+        if (blockCount == 0) {
+            return 0;
+        }
+        int tailFree = Block.maxRecordCount - usedSlots[blockCount - 1];
+        return (double) (getFreeSlotCount() - tailFree) / ((long) blockCount * Block.maxRecordCount);
+    }
+
+    public void printInfo() {
+        System.out.println("The number of allocated blocks: " + getBlockCount());
+        System.out.println("The number of empty blocks: " + getEmptyBlockCount());
+        System.out.println("The number of partially filled blocks: " + getPartialBlockCount());
+        System.out.println("The number of free slots: " + getFreeSlotCount());
+        System.out.printf("The fragmentation of the disk: %.2f%%\n", getFragmentation() * 100);
+    }
+
+    private void updateCounts(int blockID, int delta) {
+        int before = usedSlots[blockID];
+        int after = before + delta;
+        usedSlots[blockID] = after;
+        usedSlotCount += delta;
+
+        emptyBlockCount += (after == 0 ? 1 : 0) - (before == 0 ? 1 : 0);
+        partialBlockCount += (isPartial(after) ? 1 : 0) - (isPartial(before) ? 1 : 0);
+        setFree(blockID, after < Block.maxRecordCount);
+    }
+
+    private static boolean isPartial(int used) {
+        return used > 0 && used < Block.maxRecordCount;
+    }
+
+    private void setFree(int blockID, boolean free) {
+        int word = blockID >>> 6;
+        if (free) {
+            freeBlocks[word] |= 1L << blockID;
+        } else {
+            freeBlocks[word] &= ~(1L << blockID);
+        }
+
+        if (freeBlocks[word] != 0) {
+            summary[word >>> 6] |= 1L << word;
+        } else {
+            summary[word >>> 6] &= ~(1L << word);
+        }
+    }
+}
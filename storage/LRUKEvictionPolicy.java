@@ -0,0 +1,53 @@
+package storage;
+
+public class LRUKEvictionPolicy implements EvictionPolicy {
+    // Evict the frame whose K-th most recent access is the oldest
+    // Frames with fewer than K accesses have an infinite backward distance and go first, oldest access first
+    private final int k;
+    private final long[] history; // K most recent access times per frame, history[frameID * k] is the latest
+    private final int[] accessCount;
+    private long clock;
+
+    public LRUKEvictionPolicy(int frameCount, int k) {
+        this.k = k;
+        this.history = new long[frameCount * k];
+        this.accessCount = new int[frameCount];
+        this.clock = 0;
+    }
+
+    public void recordAccess(int frameID) {
+        int base = frameID * k;
+        System.arraycopy(history, base, history, base + 1, k - 1);
+        history[base] = ++clock;
+        if (accessCount[frameID] < k) {
+            accessCount[frameID]++;
+        }
+    }
+
+    public void reset(int frameID) {
+        accessCount[frameID] = 0;
+    }
+
+    public int selectVictim(int[] pinCounts) {
+        int victim = -1;
+        boolean victimHasK = true;
+        long victimTime = Long.MAX_VALUE;
+
+        for (int frameID = 0; frameID < accessCount.length; frameID++) {
+            if (pinCounts[frameID] > 0) {
+                continue;
+            }
+
+            boolean hasK = accessCount[frameID] == k;
+            // Compare the K-th access for full histories, the first recorded access otherwise
+            long time = accessCount[frameID] == 0 ? 0 : history[frameID * k + accessCount[frameID] - 1];
+
+            if (victim == -1 || (victimHasK && !hasK) || (victimHasK == hasK && time < victimTime)) {
+                victim = frameID;
+                victimHasK = hasK;
+                victimTime = time;
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,26 @@
+package storage;
+
+import java.nio.ByteBuffer;
+
+public class LogRecord {
+    // Types of log records, the fields used by each type are listed next to it
+    public static final byte DISK_INSERT = 1; // blockID, offset, row
+    public static final byte DISK_DELETE = 2; // blockID, offset
+    public static final byte INDEX_INSERT = 3; // key, blockID, offset
+    public static final byte INDEX_REMOVE = 4; // lowerBound, upperBound
+    public static final byte INDEX_UPDATE = 5; // key, blockID, offset, newBlockID, newOffset
+    public static final byte DISK_TRUNCATE = 6; // blockID (the new number of allocated blocks)
+    public static final byte COMMIT = 7; // End of an operation, never handed to a replayer
+
+    public long lsn;
+    public byte type;
+    public int blockID;
+    public int offset;
+    public ByteBuffer row; // The inserted record in its row format, starting at rowPosition
+    public int rowPosition;
+    public float key;
+    public float lowerBound;
+    public float upperBound;
+    public int newBlockID;
+    public int newOffset;
+}
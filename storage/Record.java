@@ -1,5 +1,7 @@
 package storage;
 
+import java.nio.ByteBuffer;
+
 public class Record {
     public static final int size = 37;
     public String GAME_DATE_EST;
@@ -23,4 +25,40 @@ public class Record {
         this.REB_home = REB_home;
         this.HOME_TEAM_WINS = HOME_TEAM_WINS;
     }
-}
\ No newline at end of file
+
+    public void writeTo(ByteBuffer buffer, BlockLayout layout, int offset) {
+        // Encode this record into the slot at offset of a block with the given layout
+        // The date is stored as its 8 ASCII characters (DDMMYYYY)
+        int datePosition = layout.position(offset, Column.GAME_DATE_EST);
+        for (int i = 0; i < Column.GAME_DATE_EST.width; i++) {
+            buffer.put(datePosition + i, (byte) GAME_DATE_EST.charAt(i));
+        }
+        buffer.putInt(layout.position(offset, Column.TEAM_ID_home), TEAM_ID_home);
+        buffer.putInt(layout.position(offset, Column.PTS_home), PTS_home);
+        buffer.putFloat(layout.position(offset, Column.FG_PCT_home), FG_PCT_home);
+        buffer.putFloat(layout.position(offset, Column.FT_PCT_home), FT_PCT_home);
+        buffer.putFloat(layout.position(offset, Column.FG3_PCT_home), FG3_PCT_home);
+        buffer.putInt(layout.position(offset, Column.AST_home), AST_home);
+        buffer.putInt(layout.position(offset, Column.REB_home), REB_home);
+        buffer.put(layout.position(offset, Column.HOME_TEAM_WINS), (byte) (HOME_TEAM_WINS ? 1 : 0));
+    }
+
+    public static Record readFrom(ByteBuffer buffer, BlockLayout layout, int offset) {
+        // Decode a record previously encoded by writeTo
+        int datePosition = layout.position(offset, Column.GAME_DATE_EST);
+        char[] date = new char[Column.GAME_DATE_EST.width];
+        for (int i = 0; i < date.length; i++) {
+            date[i] = (char) buffer.get(datePosition + i);
+        }
+
+        return new Record(new String(date),
+                buffer.getInt(layout.position(offset, Column.TEAM_ID_home)),
+                buffer.getInt(layout.position(offset, Column.PTS_home)),
+                buffer.getFloat(layout.position(offset, Column.FG_PCT_home)),
+                buffer.getFloat(layout.position(offset, Column.FT_PCT_home)),
+                buffer.getFloat(layout.position(offset, Column.FG3_PCT_home)),
+                buffer.getInt(layout.position(offset, Column.AST_home)),
+                buffer.getInt(layout.position(offset, Column.REB_home)),
+                buffer.get(layout.position(offset, Column.HOME_TEAM_WINS)) != 0);
+    }
+}
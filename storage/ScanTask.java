@@ -0,0 +1,55 @@
+package storage;
+
+import java.util.concurrent.RecursiveAction;
+
+//Visibility: Package
+//Reads the columns of the blocks in [fromBlockID, toBlockID) as Disk.readColumns does, into arrays shared by every
+//task of one scan: block b gets the rows from (b - firstBlockID) * Block.maxRecordCount on and its record count in
+//rowCounts[b - firstBlockID], so the tasks write to disjoint parts and nothing is merged when they are joined
+//Ranges larger than the threshold are split in half and read in parallel
+class ScanTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int THRESHOLD = 256; // Blocks read by one task without splitting further
+
+    private final Disk disk;
+    private final int firstBlockID;
+    private final int fromBlockID;
+    private final int toBlockID;
+    private final Column[] columns;
+    private final long[] packedAddresses;
+    private final int[][] values;
+    private final int[] rowCounts;
+
+    ScanTask(Disk disk, int firstBlockID, int fromBlockID, int toBlockID, Column[] columns, long[] packedAddresses,
+            int[][] values, int[] rowCounts) {
+        this.disk = disk;
+        this.firstBlockID = firstBlockID;
+        this.fromBlockID = fromBlockID;
+        this.toBlockID = toBlockID;
+        this.columns = columns;
+        this.packedAddresses = packedAddresses;
+        this.values = values;
+        this.rowCounts = rowCounts;
+    }
+
+    @Override
+    protected void compute() {
+        if (toBlockID - fromBlockID > THRESHOLD) {
+            int middle = (fromBlockID + toBlockID) >>> 1;
+            invokeAll(new ScanTask(disk, firstBlockID, fromBlockID, middle, columns, packedAddresses, values,
+                    rowCounts),
+                    new ScanTask(disk, firstBlockID, middle, toBlockID, columns, packedAddresses, values, rowCounts));
+            return;
+        }
+
+        try {
+            for (int blockID = fromBlockID; blockID < toBlockID; blockID++) {
+                int index = blockID - firstBlockID;
+                rowCounts[index] = disk.readColumns(blockID, columns, packedAddresses, values,
+                        index * Block.maxRecordCount);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Parallel scan failed", e);
+        }
+    }
+}
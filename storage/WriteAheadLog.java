@@ -0,0 +1,313 @@
+package storage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+public class WriteAheadLog {
+    // Log file layout: [magic (4B)][unused (4B)][base LSN (8B)] followed by the log records
+    // Log record: [payload length (4B)][type (1B)][payload][CRC32 of type and payload (4B)]
+    // Every operation ends with a COMMIT record, replay ignores the records after the last one: the buffer can
+    // reach the file in the middle of an operation, when it fills up or the buffer pool forces the log
+    // The LSN of a record is baseLSN plus its position after the header, so LSNs keep growing across truncations
+    private static final int FILE_MAGIC = 0x435A574C; // "CZWL"
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_OVERHEAD = 9;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String path;
+    private FileChannel channel;
+    private final ByteBuffer buffer; // Log records appended but not written to the file yet
+    private final CRC32 crc;
+    private final int syncBatch;
+    private final long syncIntervalNanos;
+
+    private long baseLSN;
+    private long writtenLSN; // End of the log records written to the file
+    private long syncedLSN; // End of the log records forced to the storage device
+    private int recordStart; // Position in the buffer of the record being appended
+    private int pendingCommits; // Operations committed since the last fsync
+    private long lastSyncTime;
+    private long syncCount;
+
+    private WriteAheadLog(String path, FileChannel channel, int syncBatch, long syncIntervalMillis) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.crc = new CRC32();
+        this.syncBatch = syncBatch;
+        this.syncIntervalNanos = syncIntervalMillis * 1000000;
+        this.lastSyncTime = System.nanoTime();
+    }
+
+    public static WriteAheadLog open(String path, int syncBatch, long syncIntervalMillis) throws IOException {
+        // Open the log, creating an empty one if the file does not exist yet
+        // The log is forced by the commit that completes a batch of syncBatch operations, or by the first commit
+        // made syncIntervalMillis after the last fsync. There is no timer: operations committed before an idle
+        // period stay unforced until the next commit, sync() or close()
+        FileChannel channel = new RandomAccessFile(path, "rw").getChannel();
+        WriteAheadLog log = new WriteAheadLog(path, channel, syncBatch, syncIntervalMillis);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.size() < HEADER_SIZE) {
+            writeHeader(channel, 0);
+        } else {
+            readFully(channel, header, 0);
+            if (header.getInt(0) != FILE_MAGIC) {
+                channel.close();
+                throw new IOException("Not a log file: " + path);
+            }
+            log.baseLSN = header.getLong(8);
+        }
+        log.writtenLSN = log.baseLSN + channel.size() - HEADER_SIZE;
+        log.syncedLSN = log.writtenLSN;
+        return log;
+    }
+
+    public long getEndLSN() {
+        // LSN the next log record will get
+        return writtenLSN + buffer.position();
+    }
+
+    public long getSyncCount() {
+        return syncCount;
+    }
+
+    public void logInsert(int blockID, int offset, Block block) throws IOException {
+        // Log the record just written at offset of the block, which must still be pinned
+        ByteBuffer payload = begin(LogRecord.DISK_INSERT, 8 + Record.size);
+        payload.putInt(blockID).putInt(offset);
+        block.readRow(offset, payload, payload.position());
+        payload.position(payload.position() + Record.size);
+        end();
+    }
+
+    public void logDelete(int blockID, int offset) throws IOException {
+        begin(LogRecord.DISK_DELETE, 8).putInt(blockID).putInt(offset);
+        end();
+    }
+
+    public void logIndexInsert(float key, Address address) throws IOException {
+        begin(LogRecord.INDEX_INSERT, 12).putFloat(key).putInt(address.blockID).putInt(address.offset);
+        end();
+    }
+
+    public void logIndexRemove(float lowerBound, float upperBound) throws IOException {
+        begin(LogRecord.INDEX_REMOVE, 8).putFloat(lowerBound).putFloat(upperBound);
+        end();
+    }
+
+    public void logIndexUpdate(float key, Address from, Address to) throws IOException {
+        begin(LogRecord.INDEX_UPDATE, 20).putFloat(key).putInt(from.blockID).putInt(from.offset)
+                .putInt(to.blockID).putInt(to.offset);
+        end();
+    }
+
+    public void logTruncate(int blockCount) throws IOException {
+        begin(LogRecord.DISK_TRUNCATE, 4).putInt(blockCount);
+        end();
+    }
+
+    public void commit() throws IOException {
+        // Mark the end of one operation, the log is forced once per batch of operations or once the sync interval
+        // has passed, see open(). A crash can lose the operations committed since the last fsync
+        begin(LogRecord.COMMIT, 0);
+        end();
+        pendingCommits++;
+        if (pendingCommits >= syncBatch || System.nanoTime() - lastSyncTime >= syncIntervalNanos) {
+            sync();
+        }
+    }
+
+    public void sync() throws IOException {
+        // Write the buffered log records and force them to the storage device
+        writeBuffer();
+        if (writtenLSN > syncedLSN) {
+            channel.force(false);
+            syncedLSN = writtenLSN;
+            syncCount++;
+        }
+        pendingCommits = 0;
+        lastSyncTime = System.nanoTime();
+    }
+
+    public void truncate(long checkpointLSN) throws IOException {
+        // Drop every log record, called once a checkpoint covering them has been saved
+        // checkpointLSN must be the end LSN of the log at that checkpoint
+        // An empty log starting at checkpointLSN is forced next to the old one and renamed over it, so a crash
+        // leaves one of them intact, never a log whose records would get LSNs below the checkpoint
+        sync();
+        String tempPath = path + ".tmp";
+        FileChannel emptyLog = new RandomAccessFile(tempPath, "rw").getChannel();
+        emptyLog.truncate(0);
+        writeHeader(emptyLog, checkpointLSN);
+        emptyLog.force(true);
+        Files.move(Paths.get(tempPath), Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        channel = emptyLog;
+        baseLSN = checkpointLSN;
+        writtenLSN = checkpointLSN;
+        syncedLSN = checkpointLSN;
+    }
+
+    public int replay(long fromLSN, Replayer replayer) throws Exception {
+        // Hand every log record of a committed operation from fromLSN on to the replayer
+        // The log is read twice: first up to the first torn or corrupted record to find the last COMMIT, then up
+        // to that COMMIT to apply the records; everything after it is cut off the log
+        writeBuffer();
+        ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        long committedEnd = HEADER_SIZE;
+        for (long position = HEADER_SIZE;;) {
+            int length = readRecord(input, position);
+            if (length < 0) {
+                break;
+            }
+            position += RECORD_OVERHEAD + length;
+            if (input.get(4) == LogRecord.COMMIT) {
+                committedEnd = position;
+            }
+        }
+
+        LogRecord entry = new LogRecord();
+        int replayed = 0;
+        for (long position = HEADER_SIZE; position < committedEnd;) {
+            int length = readRecord(input, position);
+            entry.lsn = baseLSN + position - HEADER_SIZE;
+            if (entry.lsn >= fromLSN && input.get(4) != LogRecord.COMMIT) {
+                decode(input, length, entry);
+                replayer.apply(entry);
+                replayed++;
+            }
+            position += RECORD_OVERHEAD + length;
+        }
+
+        channel.truncate(committedEnd);
+        writtenLSN = baseLSN + committedEnd - HEADER_SIZE;
+        syncedLSN = writtenLSN;
+        return replayed;
+    }
+
+    private int readRecord(ByteBuffer input, long position) throws IOException {
+        // Read the record at position of the file into input, returns its payload length or -1 if it is torn,
+        // corrupted or past the end
+        input.clear().limit(4);
+        if (readFully(channel, input, position) < 4) {
+            return -1;
+        }
+        int length = input.getInt(0);
+        if (length < 0 || length > BUFFER_SIZE - RECORD_OVERHEAD) {
+            return -1;
+        }
+        input.clear().limit(RECORD_OVERHEAD + length);
+        if (readFully(channel, input, position) < RECORD_OVERHEAD + length) {
+            return -1;
+        }
+        crc.reset();
+        crc.update(input.array(), 4, 1 + length);
+        if ((int) crc.getValue() != input.getInt(5 + length)) {
+            return -1;
+        }
+        return length;
+    }
+
+    public void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    public interface Replayer {
+        void apply(LogRecord entry) throws Exception;
+    }
+
+    private void decode(ByteBuffer input, int length, LogRecord entry) {
+        entry.type = input.get(4);
+        ByteBuffer payload = input.duplicate().position(5).limit(5 + length);
+        switch (entry.type) {
+            case LogRecord.DISK_INSERT:
+                entry.blockID = payload.getInt();
+                entry.offset = payload.getInt();
+                entry.row = input;
+                entry.rowPosition = payload.position();
+                break;
+            case LogRecord.DISK_DELETE:
+                entry.blockID = payload.getInt();
+                entry.offset = payload.getInt();
+                break;
+            case LogRecord.INDEX_INSERT:
+                entry.key = payload.getFloat();
+                entry.blockID = payload.getInt();
+                entry.offset = payload.getInt();
+                break;
+            case LogRecord.INDEX_REMOVE:
+                entry.lowerBound = payload.getFloat();
+                entry.upperBound = payload.getFloat();
+                break;
+            case LogRecord.INDEX_UPDATE:
+                entry.key = payload.getFloat();
+                entry.blockID = payload.getInt();
+                entry.offset = payload.getInt();
+                entry.newBlockID = payload.getInt();
+                entry.newOffset = payload.getInt();
+                break;
+            case LogRecord.DISK_TRUNCATE:
+                entry.blockID = payload.getInt();
+                break;
+            default:
+                throw new IllegalStateException("Unknown log record type " + entry.type);
+        }
+    }
+
+    private ByteBuffer begin(byte type, int length) throws IOException {
+        if (buffer.remaining() < RECORD_OVERHEAD + length) {
+            writeBuffer();
+        }
+        recordStart = buffer.position();
+        buffer.putInt(length).put(type);
+        return buffer;
+    }
+
+    private void end() {
+        // Checksum the type and payload of the record that was just appended
+        int length = buffer.getInt(recordStart);
+        crc.reset();
+        crc.update(buffer.array(), recordStart + 4, 1 + length);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        long position = HEADER_SIZE + writtenLSN - baseLSN;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        writtenLSN = baseLSN + position - HEADER_SIZE;
+        buffer.clear();
+    }
+
+    private static void writeHeader(FileChannel channel, long baseLSN) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0, FILE_MAGIC);
+        header.putLong(8, baseLSN);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        int total = 0;
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}